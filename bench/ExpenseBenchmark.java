@@ -0,0 +1,260 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// micro benchmarks for the ExpenseManager hot paths, no dependencies needed
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out ExpenseBenchmark                 1K and 100K rows
+//   java -Xmx8g -cp out ExpenseBenchmark 1000 100000 10000000
+//
+// every benchmark is warmed up first, then timed; allocation is measured per thread
+// so each line reports time per operation and bytes allocated per operation
+// the last section measures addExpense throughput as writer threads are added
+// report queries clear the report cache before every call so they time the query itself, the (cached) line
+// shows what a repeated query costs instead
+public class ExpenseBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final long SEED = 42;
+
+    private static com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {1_000, 100_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+        }
+
+        List<Expense> templates = seedTemplates();
+        System.out.printf("%-28s %12s %14s %16s%n", "benchmark", "rows", "ms/op", "bytes/op");
+        for (int rows : sizes) {
+            runSize(rows, templates);
+        }
+        runWriteScaling(sizes[sizes.length - 1], templates);
+    }
+
+    // the category, amount and description mix comes from the sample data
+    private static List<Expense> seedTemplates() {
+        ExpenseManager seed = new ExpenseManager();
+        seed.loadSeedData();
+        return seed.getAllExpenses();
+    }
+
+    private static Rows generate(int count, List<Expense> templates) {
+        Random random = new Random(SEED);
+        Rows rows = new Rows(count);
+        for (int i = 0; i < count; i++) {
+            Expense template = templates.get(random.nextInt(templates.size()));
+            rows.categories[i] = template.getCategory();
+            // scale the template amount between 50% and 150% and keep it to whole cents
+            rows.amounts[i] = Math.round(template.getAmount() * (50 + random.nextInt(101))) / 100.0;
+            rows.dates[i] = String.format("%02d/%02d/%d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    2020 + random.nextInt(6));
+            rows.descriptions[i] = template.getDescription();
+        }
+        return rows;
+    }
+
+    private static void runSize(int count, List<Expense> templates) throws Exception {
+        Rows rows = generate(count, templates);
+        ExpenseManager[] loaded = new ExpenseManager[1];
+
+        measure("addExpense", count, count, () -> {
+            ExpenseManager manager = new ExpenseManager();
+            rows.addTo(manager);
+            loaded[0] = manager;
+        });
+        ExpenseBatch batch = rows.toBatch();
+        measure("addExpenses (batch)", count, count, () -> new ExpenseManager().addExpenses(batch));
+        ExpenseManager manager = loaded[0];
+        int queryRepeats = Math.max(1, 1_000_000 / Math.max(count, 1000));
+
+        measure("getTotalByCategory", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getTotalByCategory();
+            }
+        });
+        measure("getMonthlyTrend", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getMonthlyTrend();
+            }
+        });
+        measure("getWeeklyTrend", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getWeeklyTrend();
+            }
+        });
+        measure("getHighestSpendCategory", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getHighestSpendCategory();
+            }
+        });
+        measure("getTopCategories(5)", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getTopCategories(5);
+            }
+        });
+        measure("getMonthlyTrend (cached)", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.getMonthlyTrend();
+            }
+        });
+        measure("getLargestExpenses(10)", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.getLargestExpenses(10);
+            }
+        });
+        measure("getPercentile(p99)", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.clearReportCache();
+                manager.getPercentile(null, 99);
+            }
+        });
+        measure("search(word)", count, queryRepeats, () -> {
+            for (int i = 0; i < queryRepeats; i++) {
+                manager.search("groceries", null, null, null, 50);
+            }
+        });
+        measure("getAllExpenses", count, 1, manager::getAllExpenses);
+
+        File csv = File.createTempFile("expense-bench", ".csv");
+        File bin = File.createTempFile("expense-bench", ".bin");
+        try {
+            measure("saveToFile (csv)", count, 1, () -> quietly(() -> manager.saveToFile(csv.getPath())));
+            measure("loadFromFile (csv)", count, 1, () -> quietly(() -> new ExpenseManager().loadFromFile(csv.getPath())));
+            measure("saveToFile (bin)", count, 1, () -> quietly(() -> manager.saveToFile(bin.getPath())));
+            measure("loadFromFile (bin)", count, 1, () -> quietly(() -> new ExpenseManager().loadFromFile(bin.getPath())));
+        } finally {
+            csv.delete();
+            bin.delete();
+        }
+    }
+
+    // rows per second for the same number of adds split over 1, 2, 4, ... writer threads
+    private static void runWriteScaling(int count, List<Expense> templates) throws Exception {
+        Rows rows = generate(count, templates);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%n%-28s %12s %14s %16s%n", "addExpense threads", "rows", "ms", "rows/sec");
+        for (int writers = 1; writers <= cores; writers *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                ExpenseManager manager = new ExpenseManager();
+                long elapsed = addConcurrently(manager, rows, writers);
+                if (manager.getExpensesCount() != count) {
+                    throw new IllegalStateException("Lost updates: " + manager.getExpensesCount() + " of " + count);
+                }
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            System.out.printf("%-28d %12d %14.2f %16.0f%n", writers, count, best / 1e6, count * 1e9 / best);
+        }
+    }
+
+    private static long addConcurrently(ExpenseManager manager, Rows rows, int writers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < rows.size(); i += writers) {
+                        rows.addRow(manager, i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // reports the best time of the measured rounds and the allocation of that round
+    private static void measure(String name, int rows, int operations, Operation operation) throws Exception {
+        long bestTime = Long.MAX_VALUE;
+        long bestAllocated = 0;
+        long thread = Thread.currentThread().getId();
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            operation.run();
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+            if (round >= WARMUP_ROUNDS && elapsed < bestTime) {
+                bestTime = elapsed;
+                bestAllocated = allocated;
+            }
+        }
+        System.out.printf("%-28s %12d %14.4f %16d%n", name, rows, bestTime / 1e6 / operations,
+                bestAllocated / operations);
+    }
+
+    // the manager prints a line for every save and load, keep it out of the results
+    private static void quietly(Runnable action) {
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static class Rows {
+        private String[] categories;
+        private double[] amounts;
+        private String[] dates;
+        private String[] descriptions;
+
+        Rows(int count) {
+            categories = new String[count];
+            amounts = new double[count];
+            dates = new String[count];
+            descriptions = new String[count];
+        }
+
+        int size() {
+            return amounts.length;
+        }
+
+        void addRow(ExpenseManager manager, int i) {
+            manager.addExpense(categories[i], amounts[i], dates[i], descriptions[i]);
+        }
+
+        // the same rows already typed, the way a feed would hand them to addExpenses
+        ExpenseBatch toBatch() {
+            ExpenseBatch batch = new ExpenseBatch(amounts.length);
+            for (int i = 0; i < amounts.length; i++) {
+                batch.addCents(categories[i], ExpenseMoney.toCents(amounts[i]), ExpenseDates.parse(dates[i]),
+                        descriptions[i]);
+            }
+            return batch;
+        }
+
+        void addTo(ExpenseManager manager) {
+            for (int i = 0; i < amounts.length; i++) {
+                addRow(manager, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+// load test for ExpenseServer over localhost, no dependencies needed
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out ExpenseLoadTest                  32 clients for 10 seconds against 100K rows
+//   java -cp out ExpenseLoadTest 256 30 1000000   clients, seconds, rows
+//
+// every client sends requests back to back: 40% /totals, 30% /trend, 20% /range and 10% POST /expenses of
+// BATCH_ROWS rows, so readers and writers hit the manager at the same time
+// the first WARMUP_SECONDS are not measured; latency is reported per endpoint, throughput over all of them
+public class ExpenseLoadTest {
+    private static final int WARMUP_SECONDS = 2;
+    private static final int BATCH_ROWS = 100;
+    private static final long SEED = 42;
+    private static final String[] CATEGORIES = {"Food", "Transportation", "Entertainment", "Utilities", "Shopping"};
+    private static final String[] ENDPOINTS = {"totals", "trend", "range", "post"};
+
+    private static volatile boolean measuring;
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rows = args.length > 2 ? Integer.parseInt(args[2].replace("_", "")) : 100_000;
+
+        ExpenseManager manager = new ExpenseManager();
+        manager.addExpenses(generate(rows, new Random(SEED)));
+        ExpenseServer server = new ExpenseServer(manager, 0);
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        System.out.printf("%d clients, %d seconds, %d rows, %s%n%n", clients, seconds, rows, base);
+
+        LogHistogram[] latencies = new LogHistogram[ENDPOINTS.length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LogHistogram();
+        }
+        LongAdder failures = new LongAdder();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Random random = new Random(SEED + i + 1);
+            Thread thread = new Thread(() -> runClient(client, base, random, latencies, failures), "load-client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(WARMUP_SECONDS * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        server.stop();
+
+        System.out.printf("%-12s %12s %12s %12s %12s%n", "endpoint", "requests", "p50 (ms)", "p99 (ms)", "max (ms)");
+        long requests = 0;
+        for (int i = 0; i < ENDPOINTS.length; i++) {
+            LogHistogram histogram = latencies[i];
+            requests += histogram.getCount();
+            System.out.printf("%-12s %12d %12.3f %12.3f %12.3f%n", ENDPOINTS[i], histogram.getCount(),
+                    histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6, histogram.getMax() / 1e6);
+        }
+        System.out.printf("%nthroughput %.0f requests/sec, %d failed, %d rows in the ledger%n",
+                requests * 1e9 / elapsed, failures.sum(), manager.getExpensesCount());
+    }
+
+    private static void runClient(HttpClient client, String base, Random random, LogHistogram[] latencies,
+            LongAdder failures) {
+        while (running) {
+            int pick = random.nextInt(10);
+            int endpoint = pick < 4 ? 0 : pick < 7 ? 1 : pick < 9 ? 2 : 3;
+            HttpRequest request = request(base, endpoint, random);
+            long start = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    failures.increment();
+                }
+            } catch (Exception e) {
+                failures.increment();
+            }
+            if (measuring) {
+                latencies[endpoint].add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static HttpRequest request(String base, int endpoint, Random random) {
+        int year = 2020 + random.nextInt(6);
+        int month = 1 + random.nextInt(12);
+        switch (endpoint) {
+            case 0:
+                return HttpRequest.newBuilder(URI.create(base + "/totals")).build();
+            case 1:
+                String level = random.nextBoolean() ? "month" : "week";
+                String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                return HttpRequest.newBuilder(URI.create(base + "/trend?level=" + level + "&category=" + category
+                        + "&from=01/01/" + year + "&to=12/31/" + year)).build();
+            case 2:
+                return HttpRequest.newBuilder(URI.create(String.format("%s/range?from=%02d/01/%d&to=%02d/28/%d&limit=20",
+                        base, month, year, month, year))).build();
+            default:
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < BATCH_ROWS; i++) {
+                    body.append(CATEGORIES[random.nextInt(CATEGORIES.length)]).append(',')
+                            .append(1 + random.nextInt(20000) / 100.0).append(',')
+                            .append(String.format("%02d/%02d/%d", 1 + random.nextInt(12), 1 + random.nextInt(28), year))
+                            .append(",load test\n");
+                }
+                return HttpRequest.newBuilder(URI.create(base + "/expenses"))
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+        }
+    }
+
+    private static ExpenseBatch generate(int count, Random random) {
+        ExpenseBatch batch = new ExpenseBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.addCents(CATEGORIES[random.nextInt(CATEGORIES.length)], 100 + random.nextInt(20000),
+                    ExpenseDates.toEpochDay(2020 + random.nextInt(6), 1 + random.nextInt(12), 1 + random.nextInt(28)),
+                    "seed");
+        }
+        return batch;
+    }
+}
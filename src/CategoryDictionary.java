@@ -0,0 +1,55 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// maps each category name to a small int id so rows only store the id
+// names are normalized the same way Expense does (lowercase and trimmed)
+// safe to share between threads: lookups never lock, only adding a new category does
+public class CategoryDictionary {
+    private Map<String, Integer> ids;
+    private volatile String[] names;
+
+    public CategoryDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new String[0];
+    }
+
+    // returns the id for the category, adding it if it has not been seen yet
+    public int idOf(String category) {
+        String name = normalize(category);
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                // the names array is replaced, never changed in place, so readers always see a complete one
+                String[] grown = Arrays.copyOf(names, names.length + 1);
+                id = names.length;
+                grown[id] = name;
+                names = grown;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    // returns the id for the category or -1 if it is not in the dictionary
+    public int find(String category) {
+        Integer id = ids.get(normalize(category));
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public static String normalize(String category) {
+        return category.toLowerCase().trim();
+    }
+}
@@ -1,6 +1,4 @@
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.Date;
 
 public class Expense {
     private String category;
@@ -47,13 +45,13 @@ public class Expense {
         this.description = description;
     }
 
-    // formatter makes the date do month day year in XX/YY/ZZZZ
-    // - in front of the string for left align
+    // date as month day year in XX/YY/ZZZZ, every column left aligned
     // 15 char width covers most categories
-    // 10 char width for prices covers most prices. the .2 is for decimal
+    // 10 char width for prices covers most prices, always two decimals
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");
-        return String.format("%-15s $%-10.2f %-12s %s", category, amount, formatter.format(date), description);
+        StringBuilder text = new StringBuilder(64);
+        ExpenseFormatter.formatTo(this, text);
+        return text.toString();
     }
 }
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// keeps only the rollup of what it is fed, never the rows, so its memory depends on the number of distinct
+// days and categories and not on how many expenses pass through
+// used by the headless mode, where reports are all that is wanted
+public class ExpenseAggregator {
+
+    // the reports the headless mode can print, each a list of label and total in dollars
+    public enum Report {
+        TOTAL(null), CATEGORY(null), DAILY(ExpenseRollup.Level.DAY), WEEKLY(ExpenseRollup.Level.WEEK),
+        MONTHLY(ExpenseRollup.Level.MONTH), YEARLY(ExpenseRollup.Level.YEAR);
+
+        // the rollup level a trend report reads, null for the others
+        private final ExpenseRollup.Level level;
+
+        Report(ExpenseRollup.Level level) {
+            this.level = level;
+        }
+
+        public String label() {
+            return name().toLowerCase();
+        }
+
+        // accepts the label, e.g. "monthly"
+        public static Report parse(String text) {
+            for (Report report : values()) {
+                if (report.label().equals(text.trim().toLowerCase())) {
+                    return report;
+                }
+            }
+            throw new IllegalArgumentException("Unknown report: " + text.trim() + " (use "
+                    + Arrays.toString(values()).toLowerCase() + ")");
+        }
+    }
+
+    private final CategoryDictionary categories;
+    private final ExpenseRollup rollup;
+    private long rows;
+
+    public ExpenseAggregator() {
+        this.categories = new CategoryDictionary();
+        this.rollup = new ExpenseRollup();
+    }
+
+    public void accept(ExpenseCsvReader.ParsedChunk chunk) {
+        String[] names = chunk.getCategoryNames();
+        int[] categoryIds = new int[names.length];
+        Arrays.fill(categoryIds, -1);
+        for (int row = 0; row < chunk.size(); row++) {
+            int localId = chunk.localCategoryIdAt(row);
+            if (categoryIds[localId] < 0) {
+                categoryIds[localId] = categories.idOf(names[localId]);
+            }
+            rollup.add(categoryIds[localId], chunk.centsAt(row), chunk.epochDayAt(row));
+        }
+        rows += chunk.size();
+    }
+
+    public void accept(ExpenseBinaryFile.Columns columns) {
+        String[] names = columns.getCategoryNames();
+        int[] categoryIds = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            categoryIds[i] = categories.idOf(names[i]);
+        }
+        long[] cents = columns.getCents();
+        int[] epochDays = columns.getEpochDays();
+        int[] rowCategoryIds = columns.getCategoryIds();
+        for (int row = 0; row < columns.size(); row++) {
+            rollup.add(categoryIds[rowCategoryIds[row]], cents[row], epochDays[row]);
+        }
+        rows += columns.size();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // categories come out sorted by name, everything else in calendar order
+    public Map<String, Double> report(Report report) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        switch (report) {
+            case TOTAL:
+                values.put("all", ExpenseMoney.toAmount(sum(rollup.trend(ExpenseRollup.Level.YEAR, -1,
+                        Integer.MIN_VALUE, Integer.MAX_VALUE))));
+                break;
+            case CATEGORY:
+                NavigableMap<String, Double> byName = new TreeMap<>();
+                for (int id = 0; id < categories.size(); id++) {
+                    byName.put(categories.nameOf(id), ExpenseMoney.toAmount(sum(rollup.trend(ExpenseRollup.Level.YEAR,
+                            id, Integer.MIN_VALUE, Integer.MAX_VALUE))));
+                }
+                values.putAll(byName);
+                break;
+            default:
+                ExpenseRollup.Level level = report.level;
+                for (Map.Entry<Integer, Long> entry
+                        : rollup.trend(level, -1, Integer.MIN_VALUE, Integer.MAX_VALUE).entrySet()) {
+                    values.put(level.label(entry.getKey()), ExpenseMoney.toAmount(entry.getValue()));
+                }
+        }
+        return values;
+    }
+
+    private static long sum(Map<Integer, Long> buckets) {
+        long total = 0;
+        for (long cents : buckets.values()) {
+            total += cents;
+        }
+        return total;
+    }
+}
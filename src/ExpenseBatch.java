@@ -0,0 +1,80 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// rows for ExpenseManager.addExpenses, already typed and stored column by column
+// nothing is checked while rows are added, the whole batch is validated in one pass when it goes in:
+// amounts from 0.01 to ExpenseMoney.MAX_CENTS and days from ExpenseDates.FIRST_DAY to LAST_DAY
+public class ExpenseBatch {
+    // marks an amount that was not a finite number
+    static final long INVALID_AMOUNT = Long.MIN_VALUE;
+
+    private String[] categories;
+    private long[] cents;
+    private int[] epochDays;
+    private String[] descriptions;
+    private int size;
+
+    public ExpenseBatch() {
+        this(256);
+    }
+
+    // expectedRows sizes the columns up front so a batch of known size never grows
+    public ExpenseBatch(int expectedRows) {
+        int capacity = Math.max(expectedRows, 1);
+        this.categories = new String[capacity];
+        this.cents = new long[capacity];
+        this.epochDays = new int[capacity];
+        this.descriptions = new String[capacity];
+    }
+
+    // amount in dollars, rounded to the nearest cent
+    public ExpenseBatch add(String category, double amount, LocalDate date, String description) {
+        long rounded = Double.isNaN(amount) || Double.isInfinite(amount) ? INVALID_AMOUNT : ExpenseMoney.toCents(amount);
+        // checked as a long, a far away date would otherwise wrap around into the int range
+        long epochDay = date == null ? ExpenseDates.INVALID : date.toEpochDay();
+        boolean valid = epochDay >= ExpenseDates.FIRST_DAY && epochDay <= ExpenseDates.LAST_DAY;
+        return addCents(category, rounded, valid ? (int) epochDay : ExpenseDates.INVALID, description);
+    }
+
+    public ExpenseBatch addCents(String category, long amountCents, int epochDay, String description) {
+        if (size == categories.length) {
+            int capacity = size * 2;
+            categories = Arrays.copyOf(categories, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+        }
+        categories[size] = category;
+        cents[size] = amountCents;
+        epochDays[size] = epochDay;
+        descriptions[size] = description;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(categories, 0, size, null);
+        Arrays.fill(descriptions, 0, size, null);
+        size = 0;
+    }
+
+    String[] getCategories() {
+        return categories;
+    }
+
+    long[] getCents() {
+        return cents;
+    }
+
+    int[] getEpochDays() {
+        return epochDays;
+    }
+
+    String[] getDescriptions() {
+        return descriptions;
+    }
+}
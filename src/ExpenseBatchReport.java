@@ -0,0 +1,69 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// outcome of one ExpenseManager.addExpenses call
+// rejected rows are kept as their index in the batch plus a shared reason string, nothing per row is formatted
+public class ExpenseBatchReport {
+    private int accepted;
+    private int[] rejectedRows;
+    private String[] reasons;
+    private int rejected;
+    private long elapsedNanos;
+
+    public ExpenseBatchReport() {
+        this.rejectedRows = new int[0];
+        this.reasons = new String[0];
+    }
+
+    void reject(int row, String reason) {
+        if (rejected == rejectedRows.length) {
+            int capacity = Math.max(8, rejected * 2);
+            rejectedRows = Arrays.copyOf(rejectedRows, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+        }
+        rejectedRows[rejected] = row;
+        reasons[rejected] = reason;
+        rejected++;
+    }
+
+    void finish(int accepted, long elapsedNanos) {
+        this.accepted = accepted;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public int getRejectedCount() {
+        return rejected;
+    }
+
+    // index in the batch of the i-th rejected row
+    public int getRejectedRow(int i) {
+        return rejectedRows[i];
+    }
+
+    public String getReason(int i) {
+        return reasons[i];
+    }
+
+    // how many rows were rejected for each reason
+    public Map<String, Integer> getReasonCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < rejected; i++) {
+            counts.merge(reasons[i], 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return accepted + " added, " + rejected + " rejected " + getReasonCounts();
+    }
+}
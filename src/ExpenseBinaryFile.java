@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// versioned binary file holding a whole expense set, laid out in columns
+//
+//   header       int magic "EXPB", int version, int row count, int category count, int description count
+//   categories   per category: int length + utf-8 bytes
+//   descriptions per distinct description: int length (-1 for null) + utf-8 bytes
+//   amounts      long cents per row (version 1 files stored a double amount)
+//   epoch days   int per row
+//   category ids int per row
+//   description ids int per row
+//
+// everything is little endian; the column sections are memory mapped and copied straight into arrays
+// and each distinct description is decoded only once
+public class ExpenseBinaryFile {
+    private static final int MAGIC = 0x45585042; // "EXPB"
+    private static final int VERSION = 2;
+    private static final int DOUBLE_AMOUNTS_VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    // the decoded columns of a file, category ids refer to categoryNames
+    public static class Columns {
+        private int rows;
+        private String[] categoryNames;
+        private long[] cents;
+        private int[] epochDays;
+        private int[] categoryIds;
+        private String[] descriptions;
+
+        public int size() {
+            return rows;
+        }
+
+        public String[] getCategoryNames() {
+            return categoryNames;
+        }
+
+        public long[] getCents() {
+            return cents;
+        }
+
+        public int[] getEpochDays() {
+            return epochDays;
+        }
+
+        public int[] getCategoryIds() {
+            return categoryIds;
+        }
+
+        public String[] getDescriptions() {
+            return descriptions;
+        }
+    }
+
+    public static boolean isBinaryFile(String filename) {
+        return filename.endsWith(".bin");
+    }
+
+    // writes the given rows of the store, in the given order, through a temp file and rename
+    // the rename is forced to disk before returning, so callers may delete older files right after
+    // returns the size of the file written
+    public static long write(ExpenseStore store, int[] rows, String filename) throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        // descriptions are deduplicated so repeated ones are stored and decoded once
+        Map<String, Integer> descriptionIds = new HashMap<>();
+        int[] rowDescriptionIds = new int[rows.length];
+        String[] distinct = new String[16];
+        for (int i = 0; i < rows.length; i++) {
+            String description = store.descriptionAt(rows[i]);
+            Integer id = descriptionIds.get(description);
+            if (id == null) {
+                id = descriptionIds.size();
+                descriptionIds.put(description, id);
+                if (id == distinct.length) {
+                    distinct = Arrays.copyOf(distinct, id * 2);
+                }
+                distinct[id] = description;
+            }
+            rowDescriptionIds[i] = id;
+        }
+
+        CategoryDictionary categories = store.getCategories();
+        long written;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(rows.length)
+                    .putInt(categories.size()).putInt(descriptionIds.size());
+            for (int id = 0; id < categories.size(); id++) {
+                buffer = putString(channel, buffer, categories.nameOf(id));
+            }
+            for (int id = 0; id < descriptionIds.size(); id++) {
+                buffer = putString(channel, buffer, distinct[id]);
+            }
+            for (int row : rows) {
+                ensureRoom(channel, buffer, 8);
+                buffer.putLong(store.centsAt(row));
+            }
+            for (int row : rows) {
+                ensureRoom(channel, buffer, 4);
+                buffer.putInt(store.epochDayAt(row));
+            }
+            for (int row : rows) {
+                ensureRoom(channel, buffer, 4);
+                buffer.putInt(store.categoryIdAt(row));
+            }
+            for (int id : rowDescriptionIds) {
+                ensureRoom(channel, buffer, 4);
+                buffer.putInt(id);
+            }
+            drain(channel, buffer);
+            channel.force(true);
+            written = channel.size();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(target.getParent());
+        return written;
+    }
+
+    // makes files created or renamed in the directory survive a crash, forcing a file only covers its contents
+    // nothing is done where a directory cannot be opened, as on windows
+    static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel opened = channel) {
+            opened.force(true);
+        }
+    }
+
+    public static Columns read(String filename) throws IOException {
+        return read(filename, true);
+    }
+
+    // only the category names, amounts and category ids, for summing a file without loading it
+    // the days and descriptions stay null and their sections are never read
+    public static Columns readAmounts(String filename) throws IOException {
+        return read(filename, false);
+    }
+
+    private static Columns read(String filename, boolean full) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not an expense file: " + filename);
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an expense file: " + filename);
+            }
+            int version = header.getInt();
+            if (version != VERSION && version != DOUBLE_AMOUNTS_VERSION) {
+                throw new IOException("Unsupported expense file version " + version);
+            }
+            Columns columns = new Columns();
+            columns.rows = header.getInt();
+            int categoryCount = header.getInt();
+            int descriptionCount = header.getInt();
+
+            long columnBytes = 20L * columns.rows;
+            long dictionaryBytes = size - HEADER_SIZE - columnBytes;
+            if (columns.rows < 0 || dictionaryBytes < 0 || dictionaryBytes > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt expense file: " + filename);
+            }
+
+            ByteBuffer dictionaries = map(channel, HEADER_SIZE, dictionaryBytes);
+            columns.categoryNames = new String[categoryCount];
+            for (int i = 0; i < categoryCount; i++) {
+                columns.categoryNames[i] = getString(dictionaries);
+            }
+            String[] distinct = new String[full ? descriptionCount : 0];
+            for (int i = 0; i < distinct.length; i++) {
+                distinct[i] = getString(dictionaries);
+            }
+
+            long position = HEADER_SIZE + dictionaryBytes;
+            int rows = columns.rows;
+            columns.cents = new long[rows];
+            if (version == DOUBLE_AMOUNTS_VERSION) {
+                DoubleBuffer amounts = map(channel, position, 8L * rows).asDoubleBuffer();
+                for (int row = 0; row < rows; row++) {
+                    columns.cents[row] = ExpenseMoney.toCents(amounts.get(row));
+                }
+            } else {
+                map(channel, position, 8L * rows).asLongBuffer().get(columns.cents);
+            }
+            position += 8L * rows;
+            if (full) {
+                columns.epochDays = new int[rows];
+                map(channel, position, 4L * rows).asIntBuffer().get(columns.epochDays);
+            }
+            position += 4L * rows;
+            columns.categoryIds = new int[rows];
+            map(channel, position, 4L * rows).asIntBuffer().get(columns.categoryIds);
+            position += 4L * rows;
+            if (!full) {
+                for (int row = 0; row < rows; row++) {
+                    if (columns.categoryIds[row] < 0 || columns.categoryIds[row] >= categoryCount) {
+                        throw new IOException("Corrupt expense file: " + filename);
+                    }
+                }
+                return columns;
+            }
+
+            int[] descriptionIds = new int[rows];
+            map(channel, position, 4L * rows).asIntBuffer().get(descriptionIds);
+            columns.descriptions = new String[rows];
+            for (int row = 0; row < rows; row++) {
+                int categoryId = columns.categoryIds[row];
+                int descriptionId = descriptionIds[row];
+                if (categoryId < 0 || categoryId >= categoryCount || descriptionId < 0 || descriptionId >= descriptionCount) {
+                    throw new IOException("Corrupt expense file: " + filename);
+                }
+                columns.descriptions[row] = distinct[descriptionId];
+            }
+            return columns;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static ByteBuffer putString(FileChannel channel, ByteBuffer buffer, String value) throws IOException {
+        if (value == null) {
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(-1);
+            return buffer;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length + 4 > buffer.capacity()) {
+            drain(channel, buffer);
+            buffer = ByteBuffer.allocateDirect(bytes.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ensureRoom(channel, buffer, bytes.length + 4);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// headless mode, for scripts and pipelines instead of the menu
+//
+//   --load <file>         .csv or .bin file to aggregate, can be given more than once
+//   --stream              read category,amount,MM/dd/yyyy,description lines from stdin until it closes
+//   --interval <seconds>  with --stream, how often the reports are printed (default 5)
+//   --report <list>       comma separated: total, category, daily, weekly, monthly, yearly (default total,category,monthly)
+//   --out <file>          write the reports there instead of stdout
+//
+// reports are csv (report,period,total); progress and bad lines go to stderr so stdout stays clean
+// only the rollup is kept, never the rows, so memory stays flat however much input goes through
+//
+// --stream runs as a pipeline: a reader thread cuts stdin into blocks of whole lines, a parser thread turns
+// blocks into parsed chunks and the calling thread aggregates them; the queues between the stages are bounded
+// so a slow stage holds the earlier ones back instead of letting blocks pile up
+public class ExpenseCli {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final String DEFAULT_REPORTS = "total,category,monthly";
+
+    // marks the end of the input on both queues
+    private static final byte[] END_OF_INPUT = new byte[0];
+    private static final ExpenseCsvReader.ParsedChunk END_OF_CHUNKS = ExpenseCsvReader.parse(ByteBuffer.allocate(0));
+
+    private final List<String> loads;
+    private final List<ExpenseAggregator.Report> reports;
+    private final ExpenseAggregator aggregator;
+    private String out;
+    private boolean stream;
+    private long intervalMillis;
+    private long errors;
+
+    private ExpenseCli() {
+        this.loads = new ArrayList<>();
+        this.reports = new ArrayList<>();
+        this.aggregator = new ExpenseAggregator();
+        this.intervalMillis = 5000;
+    }
+
+    public static boolean isHeadless(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--load") || arg.equals("--stream") || arg.equals("--report") || arg.equals("--out")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns the process exit code: 0 when done, 1 for bad arguments or a failed read or write
+    public static int run(String[] args) {
+        ExpenseCli cli = new ExpenseCli();
+        try {
+            cli.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+        try (Writer writer = cli.openOutput()) {
+            if (cli.stream) {
+                cli.runStream(System.in, writer);
+            } else {
+                cli.runLoads();
+                cli.writeReports(writer);
+            }
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        String reportList = DEFAULT_REPORTS;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--load":
+                    loads.add(value(args, ++i, "--load"));
+                    break;
+                case "--stream":
+                    stream = true;
+                    break;
+                case "--interval":
+                    try {
+                        intervalMillis = Math.round(Double.parseDouble(value(args, ++i, "--interval")) * 1000);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("--interval needs a number of seconds");
+                    }
+                    if (intervalMillis <= 0) {
+                        throw new IllegalArgumentException("--interval must be positive");
+                    }
+                    break;
+                case "--report":
+                    reportList = value(args, ++i, "--report");
+                    break;
+                case "--out":
+                    out = value(args, ++i, "--out");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        for (String name : reportList.split(",")) {
+            reports.add(ExpenseAggregator.Report.parse(name));
+        }
+        if (stream == !loads.isEmpty()) {
+            throw new IllegalArgumentException("Give either --load <file> or --stream");
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private Writer openOutput() throws IOException {
+        OutputStream target = out == null ? System.out : new FileOutputStream(out);
+        return new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BLOCK_SIZE) {
+            // stdout is left open for whoever else writes to it
+            @Override
+            public void close() throws IOException {
+                if (out == null) {
+                    flush();
+                } else {
+                    super.close();
+                }
+            }
+        };
+    }
+
+    // files are already read by a pipeline of their own: mapped chunks are parsed in parallel a few at a time
+    // and handed over in order
+    private void runLoads() throws IOException {
+        for (String filename : loads) {
+            long start = System.nanoTime();
+            long before = aggregator.getRows();
+            if (ExpenseBinaryFile.isBinaryFile(filename)) {
+                aggregator.accept(ExpenseBinaryFile.read(filename));
+            } else {
+                ExpenseLoadReport report = ExpenseCsvReader.read(filename, aggregator::accept);
+                for (ExpenseLoadReport.LineError error : report.getErrors()) {
+                    reportError(filename + " " + error);
+                }
+            }
+            System.err.printf("Loaded %s (%d rows in %.0f ms)\n", filename, aggregator.getRows() - before,
+                    (System.nanoTime() - start) / 1e6);
+        }
+        printSkipped();
+    }
+
+    private void runStream(InputStream in, Writer writer) throws IOException, InterruptedException {
+        BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<ExpenseCsvReader.ParsedChunk> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        IOException[] readFailure = new IOException[1];
+
+        Thread reader = new Thread(() -> {
+            try {
+                readBlocks(in, blocks);
+            } catch (IOException e) {
+                readFailure[0] = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            putQuietly(blocks, END_OF_INPUT);
+        }, "expense-stream-reader");
+        Thread parser = new Thread(() -> {
+            try {
+                while (true) {
+                    byte[] block = blocks.take();
+                    if (block == END_OF_INPUT) {
+                        break;
+                    }
+                    chunks.put(ExpenseCsvReader.parse(ByteBuffer.wrap(block)));
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            putQuietly(chunks, END_OF_CHUNKS);
+        }, "expense-stream-parser");
+        reader.setDaemon(true);
+        parser.setDaemon(true);
+        reader.start();
+        parser.start();
+
+        long line = 0;
+        long nextReport = System.currentTimeMillis() + intervalMillis;
+        try {
+            while (true) {
+                long wait = Math.max(0, nextReport - System.currentTimeMillis());
+                ExpenseCsvReader.ParsedChunk chunk = chunks.poll(wait, TimeUnit.MILLISECONDS);
+                if (chunk == END_OF_CHUNKS) {
+                    break;
+                }
+                if (chunk != null) {
+                    for (int i = 0; i < chunk.getErrorCount(); i++) {
+                        reportError("line " + (line + chunk.getErrorLine(i)) + ": " + chunk.getErrorMessage(i));
+                    }
+                    aggregator.accept(chunk);
+                    line += chunk.getLines();
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    writeReports(writer);
+                    nextReport = System.currentTimeMillis() + intervalMillis;
+                }
+            }
+        } finally {
+            reader.interrupt();
+            parser.interrupt();
+        }
+        if (readFailure[0] != null) {
+            throw readFailure[0];
+        }
+        printSkipped();
+        writeReports(writer);
+    }
+
+    // passes on blocks that end on a line break as soon as they are read, the unfinished last line
+    // is carried over to the next read so no line is ever split between blocks
+    private static void readBlocks(InputStream in, BlockingQueue<byte[]> blocks)
+            throws IOException, InterruptedException {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int filled = 0;
+        while (true) {
+            if (filled == buffer.length) {
+                // a single line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read < 0) {
+                break;
+            }
+            int scanFrom = filled;
+            filled += read;
+            int lastNewline = -1;
+            for (int i = filled - 1; i >= scanFrom; i--) {
+                if (buffer[i] == '\n') {
+                    lastNewline = i;
+                    break;
+                }
+            }
+            if (lastNewline >= 0) {
+                blocks.put(Arrays.copyOf(buffer, lastNewline + 1));
+                filled -= lastNewline + 1;
+                System.arraycopy(buffer, lastNewline + 1, buffer, 0, filled);
+            }
+        }
+        if (filled > 0) {
+            blocks.put(Arrays.copyOf(buffer, filled));
+        }
+    }
+
+    private static <T> void putQuietly(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reportError(String message) {
+        if (errors++ < MAX_REPORTED_ERRORS) {
+            System.err.println("Skipped " + message);
+        }
+    }
+
+    private void printSkipped() {
+        if (errors > MAX_REPORTED_ERRORS) {
+            System.err.println("Skipped " + (errors - MAX_REPORTED_ERRORS) + " more invalid line(s)");
+        }
+    }
+
+    private void writeReports(Writer writer) throws IOException {
+        writer.write("report,period,total\n");
+        for (ExpenseAggregator.Report report : reports) {
+            for (Map.Entry<String, Double> entry : aggregator.report(report).entrySet()) {
+                writer.write(report.label());
+                writer.write(',');
+                writer.write(quote(entry.getKey()));
+                writer.write(String.format(Locale.ROOT, ",%.2f\n", entry.getValue()));
+            }
+        }
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+}
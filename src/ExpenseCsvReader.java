@@ -0,0 +1,453 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// reads category,amount,MM/dd/yyyy,description files
+// the file is cut into chunks on line boundaries, each chunk is memory mapped and parsed on its own thread,
+// and the parsed chunks are handed back in file order so rows keep their original order
+public class ExpenseCsvReader {
+    private static final int CHUNK_SIZE = 8 << 20;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final long INVALID_AMOUNT = Long.MIN_VALUE;
+
+    public interface ChunkConsumer {
+        void accept(ParsedChunk chunk);
+    }
+
+    // parses the file and passes every chunk to the consumer in file order
+    // bad lines are recorded in the report instead of stopping the load
+    public static ExpenseLoadReport read(String filename, ChunkConsumer consumer) throws IOException {
+        long start = System.nanoTime();
+        ExpenseLoadReport report = new ExpenseLoadReport(filename);
+        Path path = Paths.get(filename);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = chunkBounds(channel, size);
+            int chunks = bounds.length - 1;
+
+            if (chunks == 1) {
+                ParsedChunk chunk = parse(channel, bounds[0], bounds[1]);
+                deliver(chunk, 0, report, consumer);
+            } else if (chunks > 1) {
+                int threads = Math.min(chunks, Runtime.getRuntime().availableProcessors());
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    // keep a bounded window of chunks in flight so a huge file is never fully parsed ahead
+                    Deque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+                    int next = 0;
+                    long lineOffset = 0;
+                    while (next < chunks || !inFlight.isEmpty()) {
+                        while (next < chunks && inFlight.size() < threads * 2) {
+                            long from = bounds[next];
+                            long to = bounds[next + 1];
+                            inFlight.add(executor.submit(() -> parse(channel, from, to)));
+                            next++;
+                        }
+                        ParsedChunk chunk = inFlight.poll().get();
+                        deliver(chunk, lineOffset, report, consumer);
+                        lineOffset += chunk.lines;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Load interrupted", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            report.finish(size, System.nanoTime() - start);
+        }
+        return report;
+    }
+
+    private static void deliver(ParsedChunk chunk, long lineOffset, ExpenseLoadReport report, ChunkConsumer consumer) {
+        for (int i = 0; i < chunk.errorCount; i++) {
+            report.addError(lineOffset + chunk.errorLines[i], chunk.errorMessages[i]);
+        }
+        consumer.accept(chunk);
+        report.addRows(chunk.rows);
+    }
+
+    // nominal chunk boundaries are moved forward to just past the next newline
+    private static long[] chunkBounds(FileChannel channel, long size) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = CHUNK_SIZE;
+        ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        while (position < size) {
+            long boundary = size;
+            long cursor = position;
+            outer:
+            while (cursor < size) {
+                scan.clear();
+                int read = channel.read(scan, cursor);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (scan.get(i) == '\n') {
+                        boundary = cursor + i + 1;
+                        break outer;
+                    }
+                }
+                cursor += read;
+            }
+            if (boundary >= size) {
+                break;
+            }
+            bounds.add(boundary);
+            position = boundary + CHUNK_SIZE;
+        }
+        if (size > 0) {
+            bounds.add(size);
+        }
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static ParsedChunk parse(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        return parse(buffer);
+    }
+
+    // parses whole lines from position 0 to the limit of any buffer, e.g. a block read from stdin
+    // line numbers in the chunk's errors start at 1 for the first line of the buffer
+    public static ParsedChunk parse(ByteBuffer buffer) {
+        ParsedChunk chunk = new ParsedChunk();
+        LocalCategories categories = new LocalCategories();
+        byte[] scratch = new byte[256];
+
+        int limit = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            chunk.lines++;
+            if (lineEnd > lineStart) {
+                scratch = parseLine(buffer, lineStart, lineEnd, chunk, categories, scratch);
+            }
+            lineStart = next;
+        }
+        chunk.categoryNames = categories.names();
+        return chunk;
+    }
+
+    private static byte[] parseLine(ByteBuffer buffer, int start, int end, ParsedChunk chunk,
+                                    LocalCategories categories, byte[] scratch) {
+        int firstComma = indexOf(buffer, start, end);
+        int secondComma = firstComma < 0 ? -1 : indexOf(buffer, firstComma + 1, end);
+        int thirdComma = secondComma < 0 ? -1 : indexOf(buffer, secondComma + 1, end);
+        if (thirdComma < 0) {
+            chunk.addError("Expected category,amount,date,description");
+            return scratch;
+        }
+
+        int categoryId = categories.idOf(buffer, start, firstComma);
+        if (categories.isBlank(categoryId)) {
+            chunk.addError("Category cannot be empty");
+            return scratch;
+        }
+
+        long cents = parseCents(buffer, firstComma + 1, secondComma);
+        if (cents == INVALID_AMOUNT) {
+            chunk.addError("Invalid amount");
+            return scratch;
+        }
+        if (cents <= 0) {
+            chunk.addError("Amount must be positive");
+            return scratch;
+        }
+        if (cents > ExpenseMoney.MAX_CENTS) {
+            chunk.addError(ExpenseMoney.MAX_MESSAGE);
+            return scratch;
+        }
+
+        int epochDay = ExpenseDates.parse(buffer, secondComma + 1, thirdComma);
+        if (epochDay == ExpenseDates.INVALID) {
+            chunk.addError(ExpenseDates.INVALID_MESSAGE);
+            return scratch;
+        }
+
+        // the description is everything after the third comma so commas inside it survive
+        int length = end - thirdComma - 1;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(thirdComma + 1, scratch, 0, length);
+        String description = new String(scratch, 0, length, StandardCharsets.UTF_8);
+
+        chunk.add(categoryId, cents, epochDay, description);
+        return scratch;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // parses plain decimals like 45.5 or 120.00 directly into cents
+    // anything unusual (exponents, very long numbers, fractions of a cent) goes through Double.parseDouble
+    // and is rounded to the nearest cent; returns INVALID_AMOUNT when the field is not a number
+    static long parseCents(ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa >= MAX_EXACT_MANTISSA / 10) {
+                    return parseAmountSlow(buffer, start, end);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseAmountSlow(buffer, start, end);
+            }
+        }
+        if (digits == 0) {
+            return INVALID_AMOUNT;
+        }
+        if (fractionDigits > 2) {
+            return parseAmountSlow(buffer, start, end);
+        }
+        long cents = mantissa * (fractionDigits == 2 ? 1 : fractionDigits == 1 ? 10 : 100);
+        return negative ? -cents : cents;
+    }
+
+    private static long parseAmountSlow(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        try {
+            double amount = Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+            if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+                return INVALID_AMOUNT;
+            }
+            return ExpenseMoney.toCents(amount);
+        } catch (NumberFormatException e) {
+            return INVALID_AMOUNT;
+        }
+    }
+
+    // rows parsed from one chunk of the file, kept in columns like the store
+    // category ids are local to the chunk and are resolved against categoryNames when merged
+    public static class ParsedChunk {
+        int rows;
+        int lines;
+        int[] categoryIds = new int[256];
+        long[] amounts = new long[256];
+        int[] epochDays = new int[256];
+        String[] descriptions = new String[256];
+        String[] categoryNames;
+
+        int errorCount;
+        long[] errorLines = new long[4];
+        String[] errorMessages = new String[4];
+
+        void add(int categoryId, long cents, int epochDay, String description) {
+            if (rows == amounts.length) {
+                int capacity = rows * 2;
+                categoryIds = Arrays.copyOf(categoryIds, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+            }
+            categoryIds[rows] = categoryId;
+            amounts[rows] = cents;
+            epochDays[rows] = epochDay;
+            descriptions[rows] = description;
+            rows++;
+        }
+
+        void addError(String message) {
+            if (errorCount == errorLines.length) {
+                errorLines = Arrays.copyOf(errorLines, errorCount * 2);
+                errorMessages = Arrays.copyOf(errorMessages, errorCount * 2);
+            }
+            errorLines[errorCount] = lines;
+            errorMessages[errorCount] = message;
+            errorCount++;
+        }
+
+        public int size() {
+            return rows;
+        }
+
+        public String categoryAt(int row) {
+            return categoryNames[categoryIds[row]];
+        }
+
+        public int localCategoryIdAt(int row) {
+            return categoryIds[row];
+        }
+
+        public String[] getCategoryNames() {
+            return categoryNames;
+        }
+
+        public long centsAt(int row) {
+            return amounts[row];
+        }
+
+        public long[] getCents() {
+            return amounts;
+        }
+
+        public int[] getLocalCategoryIds() {
+            return categoryIds;
+        }
+
+        public int[] getEpochDays() {
+            return epochDays;
+        }
+
+        public int epochDayAt(int row) {
+            return epochDays[row];
+        }
+
+        public String descriptionAt(int row) {
+            return descriptions[row];
+        }
+
+        public String[] getDescriptions() {
+            return descriptions;
+        }
+
+        // lines seen in the chunk, blank and rejected ones included
+        public int getLines() {
+            return lines;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public long getErrorLine(int i) {
+            return errorLines[i];
+        }
+
+        public String getErrorMessage(int i) {
+            return errorMessages[i];
+        }
+    }
+
+    // tiny open addressing table from raw category bytes to a chunk local id
+    // a ledger only has a handful of categories so this avoids making a String per row
+    private static class LocalCategories {
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private List<String> names = new ArrayList<>();
+
+        int idOf(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buffer, start, end)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[end - start];
+            buffer.get(start, key);
+            keys[slot] = key;
+            ids[slot] = names.size();
+            names.add(CategoryDictionary.normalize(new String(key, StandardCharsets.UTF_8)));
+            if (names.size() * 2 > keys.length) {
+                rehash();
+            }
+            return names.size() - 1;
+        }
+
+        boolean isBlank(int id) {
+            return names.get(id).isEmpty();
+        }
+
+        String[] names() {
+            return names.toArray(new String[0]);
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int slot = Arrays.hashCode(oldKeys[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// writes rows as category,amount,MM/dd/yyyy,description
+// every field is encoded straight into one reusable byte buffer that is drained through a FileChannel,
+// and the output goes to a temp file that replaces the target only once it is complete
+public class ExpenseCsvWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer buffer;
+    private byte[][] categoryBytes;
+
+    public ExpenseCsvWriter() {
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.categoryBytes = new byte[0][];
+    }
+
+    // rows handed over one at a time, possibly from several stores as long as they share one dictionary
+    public interface RowSource {
+        // moves to the next row, false once there are no more
+        boolean next() throws IOException;
+
+        ExpenseStore store();
+
+        int row();
+    }
+
+    // writes the given rows of the store in the given order and returns the number of bytes written
+    public long write(ExpenseStore store, int[] rows, String filename) throws IOException {
+        return write(new RowSource() {
+            private int position = -1;
+
+            @Override
+            public boolean next() {
+                return ++position < rows.length;
+            }
+
+            @Override
+            public ExpenseStore store() {
+                return store;
+            }
+
+            @Override
+            public int row() {
+                return rows[position];
+            }
+        }, filename);
+    }
+
+    // writes every row of the source in the order it hands them out and returns the number of bytes written
+    public long write(RowSource rows, String filename) throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long written = 0;
+        buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (rows.next()) {
+                written += writeRow(channel, rows.store(), rows.row());
+            }
+            written += drain(channel);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return written;
+    }
+
+    private long writeRow(FileChannel channel, ExpenseStore store, int row) throws IOException {
+        long drained = 0;
+        String description = store.descriptionAt(row);
+        // worst case per row: category + 21 char amount + 10 char date + 3 commas + newline + 3 bytes per char
+        int needed = 48 + categoryBytes(store, store.categoryIdAt(row)).length
+                + (description == null ? 0 : description.length() * 3);
+        if (buffer.remaining() < needed) {
+            drained = drain(channel);
+            if (buffer.capacity() < needed) {
+                buffer = ByteBuffer.allocateDirect(Math.max(needed, buffer.capacity() * 2));
+            }
+        }
+
+        buffer.put(categoryBytes(store, store.categoryIdAt(row)));
+        buffer.put((byte) ',');
+        putAmount(store.centsAt(row));
+        buffer.put((byte) ',');
+        ExpenseDates.formatTo(store.epochDayAt(row), buffer);
+        buffer.put((byte) ',');
+        putText(description);
+        buffer.put((byte) '\n');
+        return drained;
+    }
+
+    private long drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    // category names are encoded once per category id, not once per row
+    private byte[] categoryBytes(ExpenseStore store, int categoryId) {
+        if (categoryId >= categoryBytes.length) {
+            byte[][] grown = new byte[store.getCategories().size()][];
+            System.arraycopy(categoryBytes, 0, grown, 0, categoryBytes.length);
+            categoryBytes = grown;
+        }
+        if (categoryBytes[categoryId] == null) {
+            categoryBytes[categoryId] = store.getCategories().nameOf(categoryId).getBytes(StandardCharsets.UTF_8);
+        }
+        return categoryBytes[categoryId];
+    }
+
+    // amounts are whole cents, so digits with two decimals always read back exactly
+    private void putAmount(long cents) {
+        if (cents < 0) {
+            buffer.put((byte) '-');
+            cents = -cents;
+        }
+        putDigits(cents / 100);
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + (cents % 100) / 10));
+        buffer.put((byte) ('0' + cents % 10));
+    }
+
+    private void putDigits(long value) {
+        if (value >= 10) {
+            putDigits(value / 10);
+        }
+        buffer.put((byte) ('0' + value % 10));
+    }
+
+    // ascii goes straight in, anything else is encoded as utf-8 by hand
+    private void putText(String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
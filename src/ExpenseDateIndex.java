@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// keeps row indexes of the store grouped by epoch day in date order
+// an out of order insert only touches its own day bucket, so nothing ever needs a full re-sort
+// each bucket also keeps the day's total so range totals never look at single rows
+public class ExpenseDateIndex {
+    private NavigableMap<Integer, DayBucket> days;
+    private int size;
+
+    public ExpenseDateIndex() {
+        this.days = new TreeMap<>();
+    }
+
+    public void add(int row, int epochDay, long cents) {
+        DayBucket bucket = days.get(epochDay);
+        if (bucket == null) {
+            bucket = new DayBucket();
+            days.put(epochDay, bucket);
+        }
+        bucket.add(row, cents);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // rough heap footprint: every day's row array plus the bucket and its map entry
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (DayBucket bucket : days.values()) {
+            bytes += 16L + 4L * bucket.rows.length + 32 + 40;
+        }
+        return bytes;
+    }
+
+    // first and last day holding any rows, only defined while the index is not empty
+    public int firstDay() {
+        return days.firstKey();
+    }
+
+    public int lastDay() {
+        return days.lastKey();
+    }
+
+    // every row in date order, rows on the same day keep the order they were added in
+    public int[] rowsByDate() {
+        int[] rows = new int[size];
+        int position = 0;
+        for (DayBucket bucket : days.values()) {
+            System.arraycopy(bucket.rows, 0, rows, position, bucket.count);
+            position += bucket.count;
+        }
+        return rows;
+    }
+
+    // rows between the two days, both ends included
+    public int[] rowsBetween(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return new int[0];
+        }
+        NavigableMap<Integer, DayBucket> range = days.subMap(fromDay, true, toDay, true);
+        int count = 0;
+        for (DayBucket bucket : range.values()) {
+            count += bucket.count;
+        }
+        int[] rows = new int[count];
+        int position = 0;
+        for (DayBucket bucket : range.values()) {
+            System.arraycopy(bucket.rows, 0, rows, position, bucket.count);
+            position += bucket.count;
+        }
+        return rows;
+    }
+
+    // total in cents
+    public long totalBetween(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return 0;
+        }
+        long total = 0;
+        for (DayBucket bucket : days.subMap(fromDay, true, toDay, true).values()) {
+            total += bucket.total;
+        }
+        return total;
+    }
+
+    // up to limit rows in date order, starting offset rows into the ledger
+    // whole days are skipped by their counts so only the returned rows are touched
+    public int[] page(int offset, int limit) {
+        int[] rows = new int[Math.max(0, Math.min(limit, size - offset))];
+        int skipped = 0;
+        int position = 0;
+        for (DayBucket bucket : days.values()) {
+            if (position == rows.length) {
+                break;
+            }
+            if (skipped + bucket.count <= offset) {
+                skipped += bucket.count;
+                continue;
+            }
+            int start = Math.max(0, offset - skipped);
+            int copy = Math.min(bucket.count - start, rows.length - position);
+            System.arraycopy(bucket.rows, start, rows, position, copy);
+            position += copy;
+            skipped += start;
+        }
+        return rows;
+    }
+
+    // how many rows fall before the given day, i.e. the offset of the first row on or after it
+    public int offsetOf(int epochDay) {
+        int offset = 0;
+        for (DayBucket bucket : days.headMap(epochDay, false).values()) {
+            offset += bucket.count;
+        }
+        return offset;
+    }
+
+    private static class DayBucket {
+        private int[] rows = new int[2];
+        private int count;
+        private long total;
+
+        void add(int row, long cents) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+            total += cents;
+        }
+    }
+}
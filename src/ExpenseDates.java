@@ -0,0 +1,215 @@
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+// date handling for the fixed MM/dd/yyyy layout, working on epoch days (days since 01/01/1970)
+// parsing and formatting are done by hand so no formatter or LocalDate is created per row,
+// and the month and week labels used by the trends are cached
+public final class ExpenseDates {
+    public static final int INVALID = Integer.MIN_VALUE;
+    public static final String INVALID_MESSAGE = "Invalid date format. Use \"MM/dd/yyyy\"";
+    // the days MM/dd/yyyy can hold, 01/01/0000 to 12/31/9999
+    public static final int FIRST_DAY = toEpochDay(0, 1, 1);
+    public static final int LAST_DAY = toEpochDay(9999, 12, 31);
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("MMMM yyyy");
+    private static final int LABEL_CACHE_SIZE = 4096;
+
+    // direct mapped caches, a slot holds one immutable label so threads can share them without locking
+    private static final Label[] monthLabels = new Label[LABEL_CACHE_SIZE];
+    private static final Label[] weekKeys = new Label[LABEL_CACHE_SIZE];
+
+    private ExpenseDates() {
+    }
+
+    // parses exactly MM/dd/yyyy and rejects dates that do not exist (e.g. 02/30)
+    // returns INVALID when the text is not a valid date
+    public static int parse(CharSequence text) {
+        if (text == null || text.length() != 10 || text.charAt(2) != '/' || text.charAt(5) != '/') {
+            return INVALID;
+        }
+        int month = digits(text, 0, 2);
+        int day = digits(text, 3, 2);
+        int year = digits(text, 6, 4);
+        return toEpochDay(year, month, day);
+    }
+
+    // same as parse but reads the characters straight out of a byte buffer
+    public static int parse(ByteBuffer buffer, int start, int end) {
+        if (end - start != 10 || buffer.get(start + 2) != '/' || buffer.get(start + 5) != '/') {
+            return INVALID;
+        }
+        int month = digits(buffer, start, 2);
+        int day = digits(buffer, start + 3, 2);
+        int year = digits(buffer, start + 6, 4);
+        return toEpochDay(year, month, day);
+    }
+
+    // throws the same message addExpense always used for bad dates
+    public static int parseOrThrow(String text) {
+        int epochDay = parse(text);
+        if (epochDay == INVALID) {
+            throw new IllegalArgumentException(INVALID_MESSAGE);
+        }
+        return epochDay;
+    }
+
+    // true for a day parse could have returned, so it formats back to the same text
+    public static boolean isValid(int epochDay) {
+        return epochDay >= FIRST_DAY && epochDay <= LAST_DAY;
+    }
+
+    // days since 1970-01-01 for a proleptic gregorian date, same value as LocalDate.toEpochDay
+    // returns INVALID when the date does not exist
+    public static int toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || year < 0 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // the date packed as yyyymmdd, use year/month/dayOfMonth to take it apart
+    public static int toYearMonthDay(int epochDay) {
+        int zeroDay = epochDay + 719468;
+        int era = (zeroDay >= 0 ? zeroDay : zeroDay - 146096) / 146097;
+        int dayOfEra = zeroDay - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int year(int yearMonthDay) {
+        return yearMonthDay / 10000;
+    }
+
+    public static int month(int yearMonthDay) {
+        return yearMonthDay / 100 % 100;
+    }
+
+    public static int dayOfMonth(int yearMonthDay) {
+        return yearMonthDay % 100;
+    }
+
+    public static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    public static String format(int epochDay) {
+        StringBuilder text = new StringBuilder(10);
+        formatTo(epochDay, text);
+        return text.toString();
+    }
+
+    public static String format(LocalDate date) {
+        return format((int) date.toEpochDay());
+    }
+
+    public static void formatTo(int epochDay, StringBuilder out) {
+        int date = toYearMonthDay(epochDay);
+        int month = month(date);
+        int day = dayOfMonth(date);
+        int year = year(date);
+        out.append((char) ('0' + month / 10)).append((char) ('0' + month % 10)).append('/')
+                .append((char) ('0' + day / 10)).append((char) ('0' + day % 10)).append('/')
+                .append((char) ('0' + year / 1000 % 10)).append((char) ('0' + year / 100 % 10))
+                .append((char) ('0' + year / 10 % 10)).append((char) ('0' + year % 10));
+    }
+
+    public static void formatTo(int epochDay, ByteBuffer out) {
+        int date = toYearMonthDay(epochDay);
+        int month = month(date);
+        int day = dayOfMonth(date);
+        int year = year(date);
+        out.put((byte) ('0' + month / 10));
+        out.put((byte) ('0' + month % 10));
+        out.put((byte) '/');
+        out.put((byte) ('0' + day / 10));
+        out.put((byte) ('0' + day % 10));
+        out.put((byte) '/');
+        out.put((byte) ('0' + year / 1000 % 10));
+        out.put((byte) ('0' + year / 100 % 10));
+        out.put((byte) ('0' + year / 10 % 10));
+        out.put((byte) ('0' + year % 10));
+    }
+
+    // "November 2024" style label of the month the day falls in
+    public static String monthLabel(int epochDay) {
+        int date = toYearMonthDay(epochDay);
+        int key = year(date) * 12 + month(date) - 1;
+        Label label = monthLabels[key & (LABEL_CACHE_SIZE - 1)];
+        if (label == null || label.key != key) {
+            String text = LocalDate.of(year(date), month(date), 1).format(MONTH_FORMATTER);
+            label = new Label(key, text);
+            monthLabels[key & (LABEL_CACHE_SIZE - 1)] = label;
+        }
+        return label.text;
+    }
+
+    // "2024-11-W3" style key, week n of a month covers days 7n-6 to 7n
+    public static String weekKey(int epochDay) {
+        int date = toYearMonthDay(epochDay);
+        int week = (dayOfMonth(date) - 1) / 7 + 1;
+        int key = (year(date) * 12 + month(date) - 1) * 5 + week - 1;
+        Label label = weekKeys[key & (LABEL_CACHE_SIZE - 1)];
+        if (label == null || label.key != key) {
+            String text = String.format("%d-%02d-W%d", year(date), month(date), week);
+            label = new Label(key, text);
+            weekKeys[key & (LABEL_CACHE_SIZE - 1)] = label;
+        }
+        return label.text;
+    }
+
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static class Label {
+        private final int key;
+        private final String text;
+
+        Label(int key, String text) {
+            this.key = key;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.PrintStream;
+import java.util.Locale;
+
+// lays expenses out as the fixed-width console rows, same text as
+// String.format(Locale.ROOT, "%-15s $%-10.2f %-12s %s") whatever the default locale,
+// but appended by hand into one reusable buffer, so a page is built without a format string per row
+// and reaches the console in a single write
+public class ExpenseFormatter {
+    private static final int CATEGORY_WIDTH = 15;
+    private static final int AMOUNT_WIDTH = 10;
+    private static final int DATE_WIDTH = 12;
+    // beyond this cents no longer fit in a long and the amount goes through String.format
+    private static final double MAX_FAST_AMOUNT = 9e15;
+
+    private final StringBuilder buffer;
+
+    public ExpenseFormatter() {
+        this.buffer = new StringBuilder(4096);
+    }
+
+    public ExpenseFormatter append(Expense expense) {
+        formatTo(expense, buffer);
+        buffer.append('\n');
+        return this;
+    }
+
+    public ExpenseFormatter append(String line) {
+        buffer.append(line).append('\n');
+        return this;
+    }
+
+    // writes everything appended so far in one go and empties the buffer for the next page
+    public void flushTo(PrintStream out) {
+        out.print(buffer);
+        out.flush();
+        buffer.setLength(0);
+    }
+
+    public static void formatTo(Expense expense, StringBuilder out) {
+        int start = out.length();
+        out.append(expense.getCategory());
+        pad(out, start + CATEGORY_WIDTH);
+        out.append(" $");
+
+        start = out.length();
+        appendAmount(expense.getAmount(), out);
+        pad(out, start + AMOUNT_WIDTH);
+        out.append(' ');
+
+        start = out.length();
+        ExpenseDates.formatTo((int) expense.getDate().toEpochDay(), out);
+        pad(out, start + DATE_WIDTH);
+        out.append(' ').append(expense.getDescription());
+    }
+
+    // two decimals like %.2f in Locale.ROOT; amounts from the store are whole cents and are written digit by digit,
+    // anything finer goes through String.format so its rounding stays exactly the same
+    private static void appendAmount(double amount, StringBuilder out) {
+        long cents = Math.abs(amount) < MAX_FAST_AMOUNT ? ExpenseMoney.toCents(Math.abs(amount)) : -1;
+        if (cents < 0 || cents / 100.0 != Math.abs(amount)) {
+            out.append(String.format(Locale.ROOT, "%.2f", amount));
+            return;
+        }
+        if (amount < 0) {
+            out.append('-');
+        }
+        out.append(cents / 100).append('.');
+        out.append((char) ('0' + cents % 100 / 10)).append((char) ('0' + cents % 10));
+    }
+
+    private static void pad(StringBuilder out, int width) {
+        while (out.length() < width) {
+            out.append(' ');
+        }
+    }
+}
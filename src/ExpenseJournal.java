@@ -0,0 +1,338 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// append only log of added expenses plus periodic snapshots, kept in one directory
+//
+// every add is encoded into an in-memory buffer and a background thread writes and fsyncs
+// whatever has piled up, so many adds share one fsync (group commit)
+// a snapshot (snapshot-<generation>.bin, in the ExpenseBinaryFile format) holds every row up to that generation
+// and journal-<generation>.log holds the rows added after it
+// recovery reads the snapshot and then replays the log, stopping at the first torn or corrupt record
+public class ExpenseJournal {
+    private static final long FLUSH_INTERVAL_MS = 10;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long SNAPSHOT_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    public interface RecordConsumer {
+        void accept(String category, long cents, int epochDay, String description);
+    }
+
+    public interface SnapshotConsumer {
+        void accept(ExpenseBinaryFile.Columns columns);
+    }
+
+    private Path directory;
+    private long generation;
+    private FileChannel log;
+    private long logBytes;
+
+    // pending holds encoded records not yet written, appendedSeq/durableSeq count records
+    private ByteBuffer pending;
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+    private Thread flusher;
+
+    private ExpenseJournal(Path directory, long generation) throws IOException {
+        this.directory = directory;
+        this.generation = generation;
+        this.log = FileChannel.open(logPath(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ExpenseBinaryFile.forceDirectory(directory);
+        this.logBytes = log.size();
+        this.log.position(logBytes);
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.flusher = new Thread(this::flushLoop, "expense-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // replays the snapshot and log tail in the directory into the consumer and opens the log for appending
+    public static ExpenseJournal open(String directoryName, SnapshotConsumer snapshotConsumer,
+                                      RecordConsumer consumer) throws IOException {
+        Path directory = Paths.get(directoryName);
+        Files.createDirectories(directory);
+
+        long generation = latestSnapshot(directory);
+        if (generation > 0) {
+            snapshotConsumer.accept(ExpenseBinaryFile.read(directory.resolve(snapshotName(generation)).toString()));
+        }
+
+        Path logPath = directory.resolve(logName(generation));
+        if (Files.exists(logPath)) {
+            long validBytes = replay(logPath, consumer);
+            // drop a torn tail so new records are not appended after garbage
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                if (channel.size() > validBytes) {
+                    channel.truncate(validBytes);
+                }
+            }
+        }
+        deleteStaleFiles(directory, generation);
+        return new ExpenseJournal(directory, generation);
+    }
+
+    // queues a record and returns its sequence number, use awaitDurable to wait for the fsync
+    public synchronized long append(String category, long cents, int epochDay, String description)
+            throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        pending = encode(pending, category, cents, epochDay, description);
+        appendedSeq++;
+        return appendedSeq;
+    }
+
+    // blocks until every record up to the sequence number has been written and forced to disk
+    public synchronized void awaitDurable(long seq) throws IOException {
+        notifyAll();
+        while (durableSeq < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for journal flush", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public synchronized long lastSequence() {
+        return appendedSeq;
+    }
+
+    // true once the log has grown enough that a snapshot would noticeably speed up recovery
+    public synchronized boolean needsSnapshot() {
+        return logBytes + pending.position() > SNAPSHOT_THRESHOLD_BYTES;
+    }
+
+    // writes every row of the store into a new snapshot and starts a fresh, empty log
+    // the caller must not append while this runs
+    public void snapshot(ExpenseStore store) throws IOException {
+        awaitDurable(lastSequence());
+        long nextGeneration = generation + 1;
+
+        int[] rows = new int[store.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        ExpenseBinaryFile.write(store, rows, directory.resolve(snapshotName(nextGeneration)).toString());
+
+        // the snapshot now covers everything, so the old log can go
+        FileChannel newLog = FileChannel.open(logPath(nextGeneration), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        FileChannel oldLog;
+        synchronized (this) {
+            oldLog = log;
+            log = newLog;
+            logBytes = 0;
+            generation = nextGeneration;
+        }
+        oldLog.close();
+        // the new snapshot's rename was forced by write, the new log's entry has to be too before the old go
+        ExpenseBinaryFile.forceDirectory(directory);
+        deleteStaleFiles(directory, nextGeneration);
+    }
+
+    // flushes anything pending and stops the background thread
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void flushLoop() {
+        ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        while (true) {
+            ByteBuffer batch;
+            long batchSeq;
+            FileChannel channel;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait(FLUSH_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0 && closed) {
+                    return;
+                }
+                // swap buffers so appends keep going while this batch is written
+                batch = pending;
+                batchSeq = appendedSeq;
+                pending = spare;
+                channel = log;
+            }
+            int batchBytes = batch.position();
+            try {
+                writeFully(channel, batch);
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                logBytes += batchBytes;
+                durableSeq = batchSeq;
+                notifyAll();
+            }
+            spare = batch;
+            spare.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // record layout: int payload length, int crc32 of payload, then
+    // int epoch day, long amount in cents, category (int length + utf-8), description (int length or -1 + utf-8)
+    private static ByteBuffer encode(ByteBuffer buffer, String category, long cents, int epochDay,
+                                     String description) {
+        byte[] categoryBytes = category.getBytes(StandardCharsets.UTF_8);
+        byte[] descriptionBytes = description == null ? null : description.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 4 + 8 + 4 + categoryBytes.length + 4
+                + (descriptionBytes == null ? 0 : descriptionBytes.length);
+        if (buffer.remaining() < payloadLength + 8) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + payloadLength + 8));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        int start = buffer.position();
+        buffer.putInt(payloadLength);
+        buffer.putInt(0);
+        buffer.putInt(epochDay);
+        buffer.putLong(cents);
+        buffer.putInt(categoryBytes.length);
+        buffer.put(categoryBytes);
+        if (descriptionBytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(descriptionBytes.length);
+            buffer.put(descriptionBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start + 8, payloadLength);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    // decodes records from the buffer until it runs out or hits a bad record
+    // returns the number of bytes that held complete, valid records
+    private static int decode(ByteBuffer buffer, RecordConsumer consumer) {
+        int valid = buffer.position();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength < 20 || payloadLength > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            int epochDay = buffer.getInt();
+            long cents = buffer.getLong();
+            String category = readString(buffer);
+            String description = readString(buffer);
+            consumer.accept(category, cents, epochDay, description);
+            valid = buffer.position();
+        }
+        return valid;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static long replay(Path logPath, RecordConsumer consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logPath));
+        return decode(buffer, consumer);
+    }
+
+    // the newest snapshot wins, 0 means there is none yet
+    private static long latestSnapshot(Path directory) throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path path : snapshots) {
+                String name = path.getFileName().toString();
+                try {
+                    latest = Math.max(latest, Long.parseLong(name.substring(9, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return latest;
+    }
+
+    // removes logs and snapshots from older generations once the current one is safely in place
+    private static void deleteStaleFiles(Path directory, long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{journal-*.log,snapshot-*.bin}")) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (!name.equals(logName(generation)) && !name.equals(snapshotName(generation))) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve(logName(generation));
+    }
+
+    private static String logName(long generation) {
+        return "journal-" + generation + ".log";
+    }
+
+    private static String snapshotName(long generation) {
+        return "snapshot-" + generation + ".bin";
+    }
+}
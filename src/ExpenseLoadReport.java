@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// summary of one file load: how many rows made it in, how fast, and which lines were skipped
+public class ExpenseLoadReport {
+    private String filename;
+    private long rowsLoaded;
+    private long bytesRead;
+    private long elapsedNanos;
+    private List<LineError> errors;
+
+    public ExpenseLoadReport(String filename) {
+        this.filename = filename;
+        this.errors = new ArrayList<>();
+    }
+
+    public void addRows(long rows) {
+        rowsLoaded += rows;
+    }
+
+    public void addError(long line, String message) {
+        errors.add(new LineError(line, message));
+    }
+
+    public void finish(long bytesRead, long elapsedNanos) {
+        this.bytesRead = bytesRead;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRowsPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0.0;
+        }
+        return rowsLoaded * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    public List<LineError> getErrors() {
+        return errors;
+    }
+
+    public static class LineError {
+        private long line;
+        private String message;
+
+        public LineError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+}
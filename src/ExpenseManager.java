@@ -1,22 +1,115 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.ResolverStyle;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
+// safe to use from several threads at once
+// rows, their indexes and the journal are guarded by a read/write lock; the locked part of an add is the store
+// append plus the date index, the search index and the largest-expense ranking, which all refer to row numbers
+// (the search index keeps the word lookups of recent descriptions, so repeated ones are not tokenized again)
+// parsing, validation and the running totals happen outside of it
+// the running totals are adders that many writers can bump at once and readers can sum without locking
+// amounts are stored and summed as whole cents so totals are exact, the public methods still take and return dollars
+//
+// with enableSpill the oldest rows are sealed into segments on disk once too many are in memory, see ExpenseSegment
+// the hot rows, their indexes and the list of segments are swapped out together under the write lock
 public class ExpenseManager {
-    private List<Expense> expenses;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    // heap the cached report results may take before the least recently used are dropped
+    private static final long REPORT_CACHE_BYTES = 1024 * 1024;
+    // how many of the largest expenses are tracked as they arrive, asking for more falls back to a scan
+    private static final int LARGEST_TRACKED = 100;
+    // rows kept in memory before the oldest are sealed, when spilling is on and no budget is given
+    public static final int DEFAULT_HOT_ROWS = 1_000_000;
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
+
+    private final ReadWriteLock lock;
+    // the store's dictionary, kept apart so id lookups never go through the store reference, which seal replaces
+    private final CategoryDictionary categories;
+    // one snapshot at a time, writers that find one running leave the compaction to it
+    private final ReentrantLock checkpointLock;
+    // replaced by seal under the write lock; volatile only for the unlocked size check in sealIfNeeded
+    private volatile ExpenseStore expenses;
+    private ExpenseDateIndex dateIndex;
+    private ExpenseSearchIndex searchIndex;
+    private ExpenseJournal journal;
+
+    // running totals kept up to date on every add so reads never rescan the rows
+    // category totals are indexed by the category id from the store's dictionary
+    private final LongAdder totalExpenses;
+    private volatile LongAdder[] categoryTotals;
+    private final ExpenseRollup rollup;
+
+    // ranking and distribution sketches, also fed on every add so ranking queries never scan the rows
+    // largest covers the hot rows, sealedLargest keeps the largest of everything sealed so far
+    private ExpenseRanking largest;
+    private List<Expense> sealedLargest;
+    private final LogHistogram amounts;
+    private volatile LogHistogram[] categoryAmounts;
+
+    // how often and how fast each operation runs, see getStatsReport
+    private final ExpenseMetrics metrics;
+    // finished report maps, checked against the running totals above, see changeMark
+    private final ExpenseReportCache reportCache;
+
+    // segments sealed so far, oldest first; the list is replaced, never changed in place
+    private volatile Path spillDirectory;
+    private int maxHotRows;
+    private List<ExpenseSegment> segments;
+    private int sealedRows;
 
     public ExpenseManager() {
-        this.expenses = new ArrayList<>();
+        this(new CategoryDictionary());
+    }
+
+    // managers sharing a dictionary agree on category ids, see ExpenseWorkspace
+    // a category only counts in a manager once an expense of its own uses it
+    public ExpenseManager(CategoryDictionary categories) {
+        this(categories, new ExpenseMetrics());
+    }
+
+    // managers can also share their metrics, so many small ledgers do not each carry a set of latency histograms
+    // the operation counts and latencies are then those of every manager sharing them
+    public ExpenseManager(CategoryDictionary categories, ExpenseMetrics metrics) {
+        this.lock = new ReentrantReadWriteLock();
+        this.checkpointLock = new ReentrantLock();
+        this.categories = categories;
+        this.expenses = new ExpenseStore(categories);
+        this.dateIndex = new ExpenseDateIndex();
+        this.searchIndex = new ExpenseSearchIndex();
+        this.totalExpenses = new LongAdder();
+        this.categoryTotals = new LongAdder[0];
+        this.rollup = new ExpenseRollup();
+        this.largest = new ExpenseRanking(LARGEST_TRACKED);
+        this.sealedLargest = new ArrayList<>();
+        this.amounts = new LogHistogram();
+        this.categoryAmounts = new LogHistogram[0];
+        this.metrics = metrics;
+        this.reportCache = new ExpenseReportCache(REPORT_CACHE_BYTES, metrics);
+        this.segments = new ArrayList<>();
     }
 
     // add expense method
     // make sure amount is positive before adding expense
     public void addExpense(String category, double amount, String date, String description) {
+        long start = System.nanoTime();
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Invalid amount");
+        }
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive");
         }
@@ -26,166 +119,1380 @@ public class ExpenseManager {
         if (date == null || date.trim().isEmpty()) {
             throw new IllegalArgumentException("Date cannot be empty");
         }
-        LocalDate dateObj;
+        int epochDay = ExpenseDates.parseOrThrow(date);
+        long cents = ExpenseMoney.toCents(amount);
+        if (cents <= 0) {
+            throw new IllegalArgumentException("Amount must be at least 0.01");
+        }
+        if (cents > ExpenseMoney.MAX_CENTS) {
+            throw new IllegalArgumentException(ExpenseMoney.MAX_MESSAGE);
+        }
+
+        int categoryId = categories.idOf(category);
+        int row;
+        lock.writeLock().lock();
         try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/uuuu");
-            formatter = formatter.withResolverStyle(ResolverStyle.STRICT);
-            dateObj = LocalDate.parse(date, DateTimeFormatter.ofPattern("MM/dd/uuuu"));
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid date format. Use \"MM/dd/yyyy\"");
+            row = append(categoryId, cents, epochDay, description);
+        } finally {
+            lock.writeLock().unlock();
         }
+        updateTotals(categoryId, cents, epochDay);
+        syncJournal();
+        sealIfNeeded();
+        metrics.add(ExpenseMetrics.Counter.ROWS_ADDED, 1);
+        metrics.record(ExpenseMetrics.Operation.ADD, start);
+    }
 
-        Expense expense = new Expense(category, amount, dateObj, description);
-        expenses.add(expense);
+    // stores an already validated row in the journal and the hot rows and returns the row
+    // callers hold the write lock and call updateTotals for the row afterwards
+    private int append(int categoryId, long cents, int epochDay, String description) {
+        if (journal != null) {
+            try {
+                journal.append(categories.nameOf(categoryId), cents, epochDay, description);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to journal", e);
+            }
+        }
+        return addHotRow(categoryId, cents, epochDay, description);
     }
 
-    public double getTotalExpenses() {
-        double total = 0.0;
-        for (Expense expense : expenses) {
-            total += expense.getAmount();
+    // the store, the date and search indexes and the ranking, which refers to rows and so is kept under the lock
+    // callers hold the write lock
+    private int addHotRow(int categoryId, long cents, int epochDay, String description) {
+        int row = expenses.add(categoryId, cents, epochDay, description);
+        dateIndex.add(row, epochDay, cents);
+        searchIndex.add(row, categoryId, categories.nameOf(categoryId), description);
+        largest.offer(row, cents);
+        return row;
+    }
+
+    // folds one new expense into the running totals, needs no lock
+    // the category total and then the overall total go last, they are the report cache's change marks
+    private void updateTotals(int categoryId, long cents, int epochDay) {
+        addToSketches(categoryId, cents, epochDay);
+        categoryTotal(categoryId).add(cents);
+        totalExpenses.add(cents);
+    }
+
+    // the per-row part of the totals: the rollup and the amount histograms
+    private void addToSketches(int categoryId, long cents, int epochDay) {
+        rollup.add(categoryId, cents, epochDay);
+        amounts.add(cents);
+        categoryAmounts(categoryId).add(cents);
+    }
+
+    // the per-category cells are only created for categories this manager uses, a dictionary shared by many
+    // ledgers would otherwise cost every ledger a histogram for every category any of them has seen
+    // a new category copies the arrays with the new cell added, the existing cells are shared with the copy
+    private LongAdder categoryTotal(int categoryId) {
+        LongAdder[] totals = categoryTotals;
+        if (categoryId >= totals.length || totals[categoryId] == null) {
+            addCategory(categoryId);
+            totals = categoryTotals;
         }
-        return total;
+        return totals[categoryId];
+    }
+
+    private LogHistogram categoryAmounts(int categoryId) {
+        LogHistogram[] histograms = categoryAmounts;
+        if (categoryId >= histograms.length || histograms[categoryId] == null) {
+            addCategory(categoryId);
+            histograms = categoryAmounts;
+        }
+        return histograms[categoryId];
+    }
+
+    private synchronized void addCategory(int categoryId) {
+        LongAdder[] totals = categoryTotals;
+        if (categoryId >= totals.length || totals[categoryId] == null) {
+            LongAdder[] grown = Arrays.copyOf(totals, Math.max(totals.length, categoryId + 1));
+            grown[categoryId] = new LongAdder();
+            categoryTotals = grown;
+        }
+        LogHistogram[] histograms = categoryAmounts;
+        if (categoryId >= histograms.length || histograms[categoryId] == null) {
+            LogHistogram[] grown = Arrays.copyOf(histograms, Math.max(histograms.length, categoryId + 1));
+            grown[categoryId] = new LogHistogram();
+            categoryAmounts = grown;
+        }
+    }
+
+    // total of one category id in cents, 0 for a category with nothing added yet
+    private long categorySum(int categoryId) {
+        LongAdder[] totals = categoryTotals;
+        return categoryId < totals.length && totals[categoryId] != null ? totals[categoryId].sum() : 0;
     }
 
-    // gets the totals of each category by going through all the expenses
+    public double getTotalExpenses() {
+        return ExpenseMoney.toAmount(totalExpenses.sum());
+    }
+
+    // builds a map of the running category totals
     // returns a map of the category and the amount
     public Map<String, Double> getTotalByCategory() {
-        Map<String, Double> categoryTotals = new HashMap<>();
+        long start = System.nanoTime();
+        Map<String, Double> totals = new HashMap<>(cachedReport(Arrays.asList("category"),
+                -1, () -> {
+            Map<String, Double> byCategory = new HashMap<>();
+            for (int id = 0; id < categories.size(); id++) {
+                long cents = categorySum(id);
+                if (cents > 0) {
+                    byCategory.put(categories.nameOf(id), ExpenseMoney.toAmount(cents));
+                }
+            }
+            return byCategory;
+        }));
+        metrics.record(ExpenseMetrics.Operation.TOTALS, start);
+        return totals;
+    }
 
-        for (Expense expense : expenses) {
-            String category = expense.getCategory();
-            double currentTotal = categoryTotals.getOrDefault(category, 0.0);
-            categoryTotals.put(category, currentTotal + expense.getAmount());
+    // running totals in cents indexed by category id, 0 for the ids this manager has not used
+    // managers sharing a dictionary can add these up slot by slot
+    public long[] getCategoryCents() {
+        long[] totals = new long[categories.size()];
+        for (int id = 0; id < totals.length; id++) {
+            totals[id] = categorySum(id);
         }
-        return categoryTotals;
+        return totals;
     }
 
-    // gets the totals by each month
+    // gets the totals by each month, in calendar order
     public Map<String, Double> getMonthlyTrend() {
-        Map<String, Double> monthlyTotals = new HashMap<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMMM yyyy");
+        return getTrend(ExpenseRollup.Level.MONTH, null, null, null);
+    }
+
+    // gets the totals by each week, keyed like 2024-11-W3
+    public Map<String, Double> getWeeklyTrend() {
+        long start = System.nanoTime();
+        Map<String, Double> weeklyTotals = new LinkedHashMap<>(cachedReport(Arrays.asList("weekly"),
+                -1, () -> {
+            Map<String, Double> byWeek = new LinkedHashMap<>();
+            ExpenseRollup.Level week = ExpenseRollup.Level.WEEK;
+            for (Map.Entry<Integer, Long> entry
+                    : rollup.trend(week, -1, Integer.MIN_VALUE, Integer.MAX_VALUE).entrySet()) {
+                byWeek.put(ExpenseDates.weekKey(week.firstDay(entry.getKey())), ExpenseMoney.toAmount(entry.getValue()));
+            }
+            return byWeek;
+        }));
+        metrics.record(ExpenseMetrics.Operation.TREND, start);
+        return weeklyTotals;
+    }
 
-        for (Expense expense : expenses) {
-            String monthKey = expense.getDate().format(formatter);
-            double currentTotal = monthlyTotals.getOrDefault(monthKey, 0.0);
-            monthlyTotals.put(monthKey, currentTotal + expense.getAmount());
+    // totals per day, week, month or year in calendar order, read from the rollup instead of the expenses
+    // category narrows it to one category (null for all), from and to limit the range (null for open ended)
+    // the buckets holding from and to are included whole, e.g. food by week from 10/01/2024 to 12/31/2024
+    public Map<String, Double> getTrend(ExpenseRollup.Level level, String category, LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        int categoryId = -1;
+        if (category != null) {
+            categoryId = categories.find(category);
+            if (categoryId < 0) {
+                return new LinkedHashMap<>();
+            }
+        }
+        int fromKey = from == null ? Integer.MIN_VALUE : level.keyOf((int) from.toEpochDay());
+        int toKey = to == null ? Integer.MAX_VALUE : level.keyOf((int) to.toEpochDay());
+        if (fromKey > toKey) {
+            return new LinkedHashMap<>();
         }
+        // a result only depends on the months its buckets cover
+        int fromMonth = from == null ? Integer.MIN_VALUE : ExpenseRollup.Level.MONTH.keyOf(level.firstDay(fromKey));
+        int toMonth = to == null ? Integer.MAX_VALUE
+                : level == ExpenseRollup.Level.YEAR ? toKey * 12 + 11
+                : ExpenseRollup.Level.MONTH.keyOf(level.firstDay(toKey));
+        int trendCategory = categoryId;
+        Map<String, Double> trend = new LinkedHashMap<>(reportCache.get(Arrays.asList("trend", level, categoryId,
+                fromKey, toKey), changeMark(categoryId, fromMonth, toMonth), () -> {
+            Map<String, Double> byBucket = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Long> entry : rollup.trend(level, trendCategory, fromKey, toKey).entrySet()) {
+                byBucket.put(level.label(entry.getKey()), ExpenseMoney.toAmount(entry.getValue()));
+            }
+            return byBucket;
+        }));
+        metrics.record(ExpenseMetrics.Operation.TREND, start);
+        return trend;
+    }
 
-        // return a treemap because treemap is sorted
-        return new TreeMap<>(monthlyTotals);
+    // the category with the highest total, "None" when there are no expenses
+    public String getHighestSpendCategory() {
+        Map<String, Double> top = getTopCategories(1);
+        return top.isEmpty() ? "None" : top.keySet().iterator().next();
     }
 
-    // gets the totals by each week
-    public Map<String, Double> getWeeklyTrend() {
-        Map<String, Double> weeklyTotals = new HashMap<>();
+    // the category with the lowest total, "None" when there are no expenses
+    public String getLowestSpendCategory() {
+        Map<String, Double> bottom = getBottomCategories(1);
+        return bottom.isEmpty() ? "None" : bottom.keySet().iterator().next();
+    }
 
-        for (Expense expense : expenses) {
-            LocalDate date = expense.getDate();
+    // get specific category total
+    public double getCategoryTotal(String category) {
+        int id = categories.find(category);
+        return id < 0 ? 0.0 : ExpenseMoney.toAmount(categorySum(id));
+    }
 
-            // creating a sortable key in the form of year month week
-            String sortKey = String.format("%d-%02d-W%d",
-                    date.getYear(),
-                    date.getMonthValue(),
-                    (date.getDayOfMonth() - 1) / 7 + 1);
+    // the k categories with the highest totals, highest first, with their totals
+    public Map<String, Double> getTopCategories(int k) {
+        return rankCategories(k, true);
+    }
+
+    // the k categories with the lowest totals, lowest first, with their totals
+    public Map<String, Double> getBottomCategories(int k) {
+        return rankCategories(k, false);
+    }
+
+    private Map<String, Double> rankCategories(int k, boolean highest) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+        long start = System.nanoTime();
+        Map<String, Double> ranked = new LinkedHashMap<>(cachedReport(Arrays.asList("rank", k, highest),
+                -1, () -> {
+            // only the categories used here, a shared dictionary also holds those of other managers
+            long[] totals = new long[categories.size()];
+            int[] ids = new int[categories.size()];
+            int used = 0;
+            for (int id = 0; id < totals.length; id++) {
+                long cents = categorySum(id);
+                if (cents > 0) {
+                    totals[used] = cents;
+                    ids[used++] = id;
+                }
+            }
+            totals = Arrays.copyOf(totals, used);
+            Map<String, Double> byRank = new LinkedHashMap<>();
+            for (int index : ExpenseRanking.rank(totals, k, highest)) {
+                byRank.put(categories.nameOf(ids[index]), ExpenseMoney.toAmount(totals[index]));
+            }
+            return byRank;
+        }));
+        metrics.record(ExpenseMetrics.Operation.RANKING, start);
+        return ranked;
+    }
+
+    // the k largest single expenses, largest first
+    // up to LARGEST_TRACKED come straight from the running rankings, more than that scans every row
+    // including the ones sealed in segments
+    public List<Expense> getLargestExpenses(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (k <= largest.getCapacity()) {
+                List<Expense> hot = toExpenses(largest.largestRows(k));
+                if (sealedLargest.isEmpty()) {
+                    return hot;
+                }
+                List<Expense> candidates = new ArrayList<>(sealedLargest);
+                candidates.addAll(hot);
+                return largestFirst(candidates, k);
+            }
+            List<Expense> candidates = new ArrayList<>();
+            for (ExpenseSegment segment : segments) {
+                ExpenseStore store = segment.load(categories);
+                candidates.addAll(largestOf(store, k));
+            }
+            candidates.addAll(largestOf(expenses, k));
+            return largestFirst(candidates, k);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read segment", e);
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.RANKING, start);
+        }
+    }
 
-            weeklyTotals.put(sortKey, weeklyTotals.getOrDefault(sortKey, 0.0) + expense.getAmount());
+    // estimated amount below which the given percent of expenses fall, e.g. 50 for the median
+    // category narrows it to one category (null for all), the estimate is within 1% of the real amount
+    public double getPercentile(String category, double percent) {
+        long start = System.nanoTime();
+        LogHistogram histogram = amounts;
+        int id = -1;
+        if (category != null) {
+            id = categories.find(category);
+            LogHistogram[] histograms = categoryAmounts;
+            if (id < 0 || id >= histograms.length || histograms[id] == null) {
+                return 0.0;
+            }
+            histogram = histograms[id];
         }
+        LogHistogram source = histogram;
+        double value = cachedReport(Arrays.asList("percentile", id, percent), id,
+                () -> ExpenseMoney.toAmount(source.percentile(percent)));
+        metrics.record(ExpenseMetrics.Operation.PERCENTILE, start);
+        return value;
+    }
 
-        return new TreeMap<>(weeklyTotals);
+    public double getMedian(String category) {
+        return getPercentile(category, 50);
     }
 
-    // iterates through the category totals and finds the category with the highest amount
-    public String getHighestSpendCategory() {
-        Map<String, Double> categoryTotals = getTotalByCategory();
-        if (categoryTotals.isEmpty()) {
-            return "None";
+    // the date index is already in order so nothing is sorted here
+    public List<Expense> getAllExpenses() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return expensesBetween(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.LIST, start);
         }
+    }
 
-        String highestCategory = null;
-        double highestAmount = Double.MIN_VALUE;
+    // expenses from one date to another, both days included, in date order
+    public List<Expense> getExpensesBetween(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return expensesBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.LIST, start);
+        }
+    }
 
-        for (Map.Entry<String, Double> categoryEntry : categoryTotals.entrySet()) {
-            if (categoryEntry.getValue() > highestAmount) {
-                highestCategory = categoryEntry.getKey();
-                highestAmount = categoryEntry.getValue();
+    // adds up the per-day totals kept by the date index and the segment summaries
+    public double getTotalBetween(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        if (fromDay > toDay) {
+            metrics.record(ExpenseMetrics.Operation.RANGE_TOTAL, start);
+            return 0.0;
+        }
+        long mark = changeMark(-1, ExpenseRollup.Level.MONTH.keyOf(fromDay), ExpenseRollup.Level.MONTH.keyOf(toDay));
+        double total = reportCache.get(Arrays.asList("between", fromDay, toDay), mark, () -> {
+            lock.readLock().lock();
+            try {
+                return ExpenseMoney.toAmount(centsBetween(fromDay, toDay));
+            } finally {
+                lock.readLock().unlock();
             }
+        });
+        metrics.record(ExpenseMetrics.Operation.RANGE_TOTAL, start);
+        return total;
+    }
+
+    // the total, the count and the first limit expenses in date order between two dates (both included),
+    // all read under one read lock so they describe the same moment even while expenses are being added
+    public ExpenseSearchResult getRange(LocalDate from, LocalDate to, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
         }
+        long start = System.nanoTime();
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        if (fromDay > toDay) {
+            metrics.record(ExpenseMetrics.Operation.LIST, start);
+            return new ExpenseSearchResult(new ArrayList<>(), 0, 0.0, System.nanoTime() - start);
+        }
+        lock.readLock().lock();
+        try {
+            // the count comes from the date positions, so only the listed rows are read
+            int count = (int) (rowsBefore(toDay + 1) - rowsBefore(fromDay));
+            double total = ExpenseMoney.toAmount(centsBetween(fromDay, toDay));
+            List<Expense> listed = collect(new DateOrderedRows(fromDay, toDay), 0, limit);
+            return new ExpenseSearchResult(listed, count, total, System.nanoTime() - start);
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.LIST, start);
+        }
+    }
 
-        return highestCategory;
+    // a report over every month, of one category or all of them (-1)
+    private <T> T cachedReport(List<Object> key, int categoryId, Supplier<T> compute) {
+        return reportCache.get(key, changeMark(categoryId, Integer.MIN_VALUE, Integer.MAX_VALUE), compute);
     }
 
-    // iterates through the category totals and finds the category with the lowest amount
-    public String getLowestSpendCategory() {
-        Map<String, Double> categoryTotals = getTotalByCategory();
-        if (categoryTotals.isEmpty()) {
-            return "None";
+    // what a cached report over the months (MIN_VALUE and MAX_VALUE for open ends) of one category or all (-1)
+    // is checked against: their total in cents, which only stays the same while nothing is added to them
+    // over every month that is the running category or overall total, otherwise the rollup's month buckets;
+    // both are bumped after the rows, indexes and other sketches, so a mark that includes an expense means
+    // whatever the report is computed from includes it too
+    private long changeMark(int categoryId, int fromMonth, int toMonth) {
+        if (fromMonth == Integer.MIN_VALUE && toMonth == Integer.MAX_VALUE) {
+            return categoryId < 0 ? totalExpenses.sum() : categorySum(categoryId);
         }
+        return rollup.sum(ExpenseRollup.Level.MONTH, categoryId, fromMonth, toMonth);
+    }
 
-        String lowestCategory = null;
-        double lowestAmount = Double.MAX_VALUE;
+    // one page of expenses in date order, offset is the number of expenses to skip
+    // with segments the first day of the page is found from the per-day counts and only the rows from there on are read
+    public List<Expense> getExpensesPage(int offset, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (segments.isEmpty()) {
+                return toExpenses(dateIndex.page(offset, limit));
+            }
+            if (offset >= expenses.size() + sealedRows || limit <= 0) {
+                return new ArrayList<>();
+            }
+            // the day holding the row at offset is the first day whose end lies past it
+            int low = Integer.MAX_VALUE;
+            int high = Integer.MIN_VALUE;
+            for (ExpenseSegment segment : segments) {
+                low = Math.min(low, segment.firstDay());
+                high = Math.max(high, segment.lastDay());
+            }
+            if (dateIndex.size() > 0) {
+                low = Math.min(low, dateIndex.firstDay());
+                high = Math.max(high, dateIndex.lastDay());
+            }
+            while (low < high) {
+                int middle = low + (high - low) / 2;
+                if (rowsBefore(middle + 1) > offset) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return collect(new DateOrderedRows(low, Integer.MAX_VALUE), offset - rowsBefore(low), limit);
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.LIST, start);
+        }
+    }
+
+    // position of the first expense on or after the date in date order, for use as a page offset
+    public int getExpensesPosition(LocalDate date) {
+        lock.readLock().lock();
+        try {
+            return (int) rowsBefore((int) date.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        for (Map.Entry<String, Double> categoryEntry : categoryTotals.entrySet()) {
-            if (categoryEntry.getValue() < lowestAmount) {
-                lowestCategory = categoryEntry.getKey();
-                lowestAmount = categoryEntry.getValue();
+    // walks the expenses between two dates in date order without building Expense objects up front
+    // the rows are fixed when the iterator is created, expenses added later are not included
+    // the rows are numbered within the hot store of that moment, which is kept because seal replaces it
+    public Iterator<Expense> iterateExpenses(LocalDate from, LocalDate to) {
+        int[] rows;
+        ExpenseStore store;
+        lock.readLock().lock();
+        try {
+            if (!segments.isEmpty()) {
+                return iterate(new DateOrderedRows((int) from.toEpochDay(), (int) to.toEpochDay()));
             }
+            rows = dateIndex.rowsBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+            store = expenses;
+        } finally {
+            lock.readLock().unlock();
         }
+        return new Iterator<Expense>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < rows.length;
+            }
 
-        return lowestCategory;
+            @Override
+            public Expense next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                lock.readLock().lock();
+                try {
+                    return store.get(rows[position++]);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        };
     }
 
-    // get specific category total
-    public double getCategoryTotal(String category) {
-        Map<String, Double> categoryTotals = getTotalByCategory();
-        if (categoryTotals.containsKey(category.toLowerCase().trim())) {
-            return categoryTotals.get(category);
+    // expenses whose description or category contains every word of the query, e.g. "uber" or "elec* bill"
+    // a word ending in * matches any word starting with it, an empty query matches everything
+    // category (null for all) and from/to (null for open ended, both included) narrow the matches further
+    // at most limit expenses are returned, earliest first, the count and total cover every match
+    // segments in the date range that hold the category are read back and searched one at a time
+    public ExpenseSearchResult search(String query, String category, LocalDate from, LocalDate to, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int categoryId = -1;
+            if (category != null) {
+                categoryId = categories.find(category);
+                if (categoryId < 0) {
+                    return new ExpenseSearchResult(new ArrayList<>(), 0, 0.0, System.nanoTime() - start);
+                }
+            }
+            int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+            int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+            String text = query == null ? "" : query;
+            Matches matches = new Matches(categoryId, fromDay, toDay);
+
+            for (ExpenseSegment segment : segments) {
+                if (segment.overlaps(fromDay, toDay) && (categoryId < 0 || segment.hasCategory(categoryId))) {
+                    searchSegment(segment, text, matches, limit);
+                }
+            }
+
+            int[] rows = searchIndex.search(text);
+            boolean dateOrdered = rows == null;
+            if (rows == null) {
+                rows = dateIndex.rowsBetween(fromDay, toDay);
+            }
+            int count = matches.filter(expenses, rows);
+            int[] shown = dateOrdered ? Arrays.copyOf(rows, Math.min(count, limit)) : earliest(rows, count, limit);
+            matches.shown.addAll(toExpenses(shown));
+
+            // each part is already in date order, a stable sort keeps same-day matches in the order they were added
+            List<Expense> earliest = matches.shown;
+            if (!segments.isEmpty()) {
+                earliest.sort(Comparator.comparing(Expense::getDate));
+                earliest = new ArrayList<>(earliest.subList(0, Math.min(limit, earliest.size())));
+            }
+            return new ExpenseSearchResult(earliest, matches.count, ExpenseMoney.toAmount(matches.cents),
+                    System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read segment", e);
+        } finally {
+            lock.readLock().unlock();
+            metrics.record(ExpenseMetrics.Operation.SEARCH, start);
         }
-        return 0.0;
     }
 
-    public List<Expense> getAllExpenses() {
-        List<Expense> expenses = new ArrayList<>(this.expenses);
-        expenses.sort(Comparator.comparing(Expense::getDate));
-        return expenses;
+    // the first limit of the rows in date order, same day rows in the order they were added
+    // a bounded ranking keyed by the negated (day, row) pair keeps the earliest ones without sorting every match
+    // callers hold the read lock
+    private int[] earliest(int[] rows, int count, int limit) {
+        ExpenseRanking ranking = new ExpenseRanking(Math.min(count, limit));
+        for (int i = 0; i < count; i++) {
+            ranking.offer(rows[i], -((long) expenses.epochDayAt(rows[i]) << 32 | rows[i]));
+        }
+        return ranking.largestRows(limit);
+    }
+
+    // reads one segment back and searches it with an index built just for it, the rows are already in date order
+    private void searchSegment(ExpenseSegment segment, String query, Matches matches, int limit) throws IOException {
+        ExpenseStore store = segment.load(categories);
+        int[] rows;
+        if (ExpenseSearchIndex.tokenize(query).isEmpty()) {
+            int first = segment.rowsBefore(matches.fromDay);
+            rows = new int[segment.rowsBefore(matches.toDay + 1L) - first];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = first + i;
+            }
+        } else {
+            ExpenseSearchIndex index = new ExpenseSearchIndex();
+            for (int row = 0; row < store.size(); row++) {
+                index.add(row, store.categoryIdAt(row), store.categoryAt(row), store.descriptionAt(row));
+            }
+            rows = index.search(query);
+        }
+        int count = matches.filter(store, rows);
+        for (int i = 0; i < Math.min(count, limit); i++) {
+            matches.shown.add(store.get(rows[i]));
+        }
+    }
+
+    // callers hold the read lock
+    private List<Expense> toExpenses(int[] rows) {
+        List<Expense> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(expenses.get(row));
+        }
+        return result;
     }
 
     public int getExpensesCount() {
-        return expenses.size();
+        lock.readLock().lock();
+        try {
+            return expenses.size() + sealedRows;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     // save expenses to a file
     // input: filename
     public void saveToFile(String filename) {
-        try (FileWriter fileWriter = new FileWriter(filename)) {
-            List<Expense> sortedExpenses = new ArrayList<>(this.expenses);
-            sortedExpenses.sort(Comparator.comparing(Expense::getDate));
-            for (Expense expense : sortedExpenses) {
-                fileWriter.write(String.format("%s,%f,%s,%s\n",
-                        expense.getCategory(),
-                        expense.getAmount(),
-                        expense.getDate().format(DateTimeFormatter.ofPattern("MM/dd/yyyy")),
-                        expense.getDescription()));
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            long written;
+            if (!segments.isEmpty()) {
+                // csv is written row by row, so the segments can be streamed through it one at a time;
+                // a binary file needs every description up front
+                if (ExpenseBinaryFile.isBinaryFile(filename)) {
+                    System.out.println("Error saving to file: expenses spilled to disk can only be saved as .csv");
+                    return;
+                }
+                written = new ExpenseCsvWriter().write(new DateOrderedRows(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                        filename);
+            } else if (ExpenseBinaryFile.isBinaryFile(filename)) {
+                written = ExpenseBinaryFile.write(expenses, dateIndex.rowsByDate(), filename);
+            } else {
+                written = new ExpenseCsvWriter().write(expenses, dateIndex.rowsByDate(), filename);
             }
+            metrics.add(ExpenseMetrics.Counter.ROWS_SAVED, expenses.size() + sealedRows);
+            metrics.add(ExpenseMetrics.Counter.BYTES_WRITTEN, written);
+            metrics.record(ExpenseMetrics.Operation.SAVE, start);
             System.out.println("Expense saved to " + filename);
         } catch (IOException e) {
             System.out.println("Error saving to file: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     // load expenses from file
+    // lines that cannot be parsed are skipped and listed afterwards instead of stopping the load
     public void loadFromFile(String filename) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                addExpense(parts[0], Double.parseDouble(parts[1]), parts[2], parts[3]);
+        if (ExpenseBinaryFile.isBinaryFile(filename)) {
+            loadFromBinaryFile(filename);
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            ExpenseLoadReport report = ExpenseCsvReader.read(filename, this::appendChunk);
+            syncJournal();
+            metrics.add(ExpenseMetrics.Counter.ROWS_LOADED, report.getRowsLoaded());
+            metrics.add(ExpenseMetrics.Counter.BYTES_READ, report.getBytesRead());
+            metrics.add(ExpenseMetrics.Counter.LOAD_ERRORS, report.getErrors().size());
+            metrics.record(ExpenseMetrics.Operation.LOAD, start);
+            System.out.printf("Expense loaded from %s (%d rows, %.0f rows/sec)\n",
+                    filename, report.getRowsLoaded(), report.getRowsPerSecond());
+            printLoadErrors(report);
+        } catch (IOException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+        }
+    }
+
+    // opens (or creates) a data directory and replays the snapshot and journal found in it
+    // from then on every added expense is written to the journal before addExpense returns
+    public void openJournal(String directory) {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                System.out.println("A journal is already open");
+                return;
+            }
+            if (spillDirectory != null) {
+                System.out.println("A journal cannot be combined with spilling to disk");
+                return;
+            }
+            int before = expenses.size();
+            journal = ExpenseJournal.open(directory, this::appendColumns, (category, cents, epochDay, description) -> {
+                int categoryId = categories.idOf(category);
+                append(categoryId, cents, epochDay, description);
+                updateTotals(categoryId, cents, epochDay);
+            });
+            System.out.println("Recovered " + (expenses.size() - before) + " expenses from " + directory);
+        } catch (IOException e) {
+            System.out.println("Error opening journal: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // flushes and closes the journal, nothing is persisted after this
+    public void closeJournal() {
+        lock.writeLock().lock();
+        try {
+            if (journal == null) {
+                return;
+            }
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        } finally {
+            journal = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    // closes the journal and deletes the segment files and their directory, for when the manager is done with
+    // so a long running process does not keep the files of every spilled ledger until it exits
+    // expenses sealed into segments are gone afterwards, the manager should not be queried any more
+    public void close() {
+        closeJournal();
+        lock.writeLock().lock();
+        try {
+            if (spillDirectory == null) {
+                return;
+            }
+            for (ExpenseSegment segment : segments) {
+                segment.delete();
+            }
+            Files.deleteIfExists(spillDirectory);
+        } catch (IOException e) {
+            System.out.println("Error deleting spill files: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // writes a snapshot of every expense so recovery no longer has to replay the whole log
+    // waits for a snapshot another thread is already writing, then writes its own
+    public void checkpoint() {
+        checkpointLock.lock();
+        try {
+            writeSnapshot();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // callers hold checkpointLock, holding the read lock keeps writers out while the snapshot is taken
+    private void writeSnapshot() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (journal != null) {
+                journal.snapshot(expenses);
+                metrics.record(ExpenseMetrics.Operation.CHECKPOINT, start);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // waits for the queued journal records to reach the disk, then compacts the log if it got large
+    // many threads waiting here at once share the same fsync
+    private void syncJournal() {
+        ExpenseJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.awaitDurable(current.lastSequence());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to journal", e);
+        }
+        // only one of the writers that see the log grow past the threshold compacts it, the rest go on
+        if (current.needsSnapshot() && checkpointLock.tryLock()) {
+            try {
+                if (current.needsSnapshot()) {
+                    writeSnapshot();
+                }
+            } finally {
+                checkpointLock.unlock();
             }
-            System.out.println("Expense loaded from " + filename);
+        }
+    }
+
+    // binary files are mapped and copied in column by column, no text parsing involved
+    private void loadFromBinaryFile(String filename) {
+        try {
+            long start = System.nanoTime();
+            int rows = readBinary(filename);
+            System.out.printf("Expense loaded from %s (%d rows in %.0f ms)\n",
+                    filename, rows, (System.nanoTime() - start) / 1e6);
         } catch (IOException e) {
             System.out.println("Error loading file: " + e.getMessage());
         }
     }
 
+    // adds every expense of a binary file and returns how many, for callers that report errors themselves
+    public int readBinary(String filename) throws IOException {
+        long start = System.nanoTime();
+        ExpenseBinaryFile.Columns columns = ExpenseBinaryFile.read(filename);
+        appendColumns(columns);
+        syncJournal();
+        metrics.add(ExpenseMetrics.Counter.ROWS_LOADED, columns.size());
+        metrics.add(ExpenseMetrics.Counter.BYTES_READ, new File(filename).length());
+        metrics.record(ExpenseMetrics.Operation.LOAD, start);
+        return columns.size();
+    }
+
+    // writes every expense to a binary file and returns its size, for callers that report errors themselves
+    public long writeBinary(String filename) throws IOException {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (!segments.isEmpty()) {
+                throw new IOException("Expenses spilled to disk can only be saved as .csv");
+            }
+            long written = ExpenseBinaryFile.write(expenses, dateIndex.rowsByDate(), filename);
+            metrics.add(ExpenseMetrics.Counter.ROWS_SAVED, expenses.size());
+            metrics.add(ExpenseMetrics.Counter.BYTES_WRITTEN, written);
+            metrics.record(ExpenseMetrics.Operation.SAVE, start);
+            return written;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // converts between csv and binary (or back), picking each format from the file extension
+    public static void convert(String from, String to) {
+        ExpenseManager manager = new ExpenseManager();
+        manager.loadFromFile(from);
+        manager.saveToFile(to);
+    }
+
+    // adds many already typed expenses at once
+    // every row is checked in one pass and bad rows are left out and listed in the report instead of throwing;
+    // the good rows are stored under one lock, the totals are bumped once per category and the journal is
+    // synced once for the whole batch
+    public ExpenseBatchReport addExpenses(ExpenseBatch batch) {
+        long start = System.nanoTime();
+        ExpenseBatchReport report = new ExpenseBatchReport();
+        String[] rawCategories = batch.getCategories();
+        long[] batchCents = batch.getCents();
+        int[] batchDays = batch.getEpochDays();
+        String[] batchDescriptions = batch.getDescriptions();
+
+        // batch local category ids, each distinct category string is normalized only once
+        Map<String, Integer> localIdsByName = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int[] localIds = new int[batch.size()];
+        long[] cents = new long[batch.size()];
+        int[] epochDays = new int[batch.size()];
+        String[] descriptions = new String[batch.size()];
+        int rows = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            String category = rawCategories[i];
+            if (category == null || category.trim().isEmpty()) {
+                report.reject(i, "Category cannot be empty");
+                continue;
+            }
+            if (batchCents[i] == ExpenseBatch.INVALID_AMOUNT) {
+                report.reject(i, "Invalid amount");
+                continue;
+            }
+            if (batchCents[i] <= 0) {
+                report.reject(i, "Amount must be positive");
+                continue;
+            }
+            if (batchCents[i] > ExpenseMoney.MAX_CENTS) {
+                report.reject(i, ExpenseMoney.MAX_MESSAGE);
+                continue;
+            }
+            if (!ExpenseDates.isValid(batchDays[i])) {
+                report.reject(i, ExpenseDates.INVALID_MESSAGE);
+                continue;
+            }
+            Integer localId = localIdsByName.get(category);
+            if (localId == null) {
+                localId = names.size();
+                names.add(category);
+                localIdsByName.put(category, localId);
+            }
+            localIds[rows] = localId;
+            cents[rows] = batchCents[i];
+            epochDays[rows] = batchDays[i];
+            descriptions[rows] = batchDescriptions[i];
+            rows++;
+        }
+
+        int[] categoryIds = new int[names.size()];
+        for (int i = 0; i < categoryIds.length; i++) {
+            categoryIds[i] = categories.idOf(names.get(i));
+        }
+        appendRows(localIds, categoryIds, cents, epochDays, descriptions, rows);
+        syncJournal();
+        report.finish(rows, System.nanoTime() - start);
+        metrics.add(ExpenseMetrics.Counter.ROWS_ADDED, rows);
+        metrics.add(ExpenseMetrics.Counter.ROWS_REJECTED, report.getRejectedCount());
+        metrics.record(ExpenseMetrics.Operation.ADD_BATCH, start);
+        return report;
+    }
+
+    private void appendColumns(ExpenseBinaryFile.Columns columns) {
+        String[] names = columns.getCategoryNames();
+        int[] categoryIds = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            categoryIds[i] = categories.idOf(names[i]);
+        }
+        appendRows(columns.getCategoryIds(), categoryIds, columns.getCents(), columns.getEpochDays(),
+                columns.getDescriptions(), columns.size());
+    }
+
+    // rows coming from the csv reader are already parsed and validated
+    private void appendChunk(ExpenseCsvReader.ParsedChunk chunk) {
+        // chunk local ids are resolved on first use so names only seen on rejected lines stay out
+        String[] names = chunk.getCategoryNames();
+        int[] categoryIds = new int[names.length];
+        Arrays.fill(categoryIds, -1);
+        for (int row = 0; row < chunk.size(); row++) {
+            int localId = chunk.localCategoryIdAt(row);
+            if (categoryIds[localId] < 0) {
+                categoryIds[localId] = categories.idOf(names[localId]);
+            }
+        }
+        appendRows(chunk.getLocalCategoryIds(), categoryIds, chunk.getCents(), chunk.getEpochDays(),
+                chunk.getDescriptions(), chunk.size());
+    }
+
+    // the shared path of every bulk add: validated columns are appended under one lock with the capacity
+    // reserved once, then the totals are updated after the lock is released
+    // localIds index into categoryIds, which maps them to dictionary ids
+    private void appendRows(int[] localIds, int[] categoryIds, long[] cents, int[] epochDays, String[] descriptions,
+            int rows) {
+        lock.writeLock().lock();
+        try {
+            expenses.ensureCapacity(expenses.size() + rows);
+            for (int row = 0; row < rows; row++) {
+                append(categoryIds[localIds[row]], cents[row], epochDays[row], descriptions[row]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        addBatchTotals(cents, localIds, categoryIds, epochDays, rows);
+        sealIfNeeded();
+    }
+
+    // a batch is summed column-wise first so the shared adders are bumped once per category, not once per row
+    // localIds index into categoryIds, which maps them to dictionary ids
+    // the sketches go first and the overall total last, in the same order as updateTotals
+    private void addBatchTotals(long[] cents, int[] localIds, int[] categoryIds, int[] epochDays, int rows) {
+        for (int row = 0; row < rows; row++) {
+            addToSketches(categoryIds[localIds[row]], cents[row], epochDays[row]);
+        }
+        long[] localTotals = new long[categoryIds.length];
+        ExpenseMoney.sumByCategory(cents, localIds, 0, rows, localTotals);
+        for (int localId = 0; localId < localTotals.length; localId++) {
+            if (categoryIds[localId] >= 0) {
+                categoryTotal(categoryIds[localId]).add(localTotals[localId]);
+            }
+        }
+        totalExpenses.add(ExpenseMoney.sum(cents, 0, rows));
+    }
+
+    // out-of-core mode for ledgers larger than the heap: once more than maxHotRows expenses are in memory the oldest
+    // are sealed into segment files under the directory and only the newest maxHotRows / 2 stay hot
+    // totals, trends, rankings and percentiles are running aggregates over every expense and stay exact;
+    // listings, pages, range totals, search and saving read the segments back where the summaries are not enough
+    // segment files only last as long as the process, so this cannot be combined with a journal
+    public void enableSpill(String directory, int maxHotRows) {
+        if (maxHotRows < 2) {
+            throw new IllegalArgumentException("Hot row budget must be at least 2");
+        }
+        lock.writeLock().lock();
+        try {
+            if (spillDirectory != null) {
+                System.out.println("Spilling to disk is already enabled");
+                return;
+            }
+            if (journal != null) {
+                System.out.println("A journal cannot be combined with spilling to disk");
+                return;
+            }
+            Path parent = Files.createDirectories(Paths.get(directory));
+            Path segmentDirectory = Files.createTempDirectory(parent, "segments-");
+            segmentDirectory.toFile().deleteOnExit();
+            this.maxHotRows = maxHotRows;
+            this.spillDirectory = segmentDirectory;
+        } catch (IOException e) {
+            System.out.println("Error opening spill directory: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sealIfNeeded();
+    }
+
+    // seals the oldest hot rows into a new segment once there are more than the budget
+    // the size is first read without the lock, a stale value only puts the seal off until the next add
+    private void sealIfNeeded() {
+        if (spillDirectory == null || expenses.size() <= maxHotRows) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            while (expenses.size() > maxHotRows) {
+                seal(expenses.size() - maxHotRows / 2);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write segment", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // writes the count oldest hot rows to a segment, then moves the rest into fresh hot structures in the order
+    // they were added so the sealed rows can be collected; nothing changes if the segment cannot be written
+    // callers hold the write lock
+    private void seal(int count) throws IOException {
+        int[] byDate = dateIndex.rowsByDate();
+        int[] sealed = Arrays.copyOf(byDate, count);
+        Path file = spillDirectory.resolve("segment-" + segments.size() + ".bin");
+        file.toFile().deleteOnExit();
+        ExpenseSegment segment = ExpenseSegment.write(expenses, sealed, file);
+
+        ExpenseRanking ranking = new ExpenseRanking(LARGEST_TRACKED);
+        for (int row : sealed) {
+            ranking.offer(row, expenses.centsAt(row));
+        }
+        List<Expense> candidates = new ArrayList<>(sealedLargest);
+        candidates.addAll(toExpenses(ranking.largestRows(LARGEST_TRACKED)));
+        sealedLargest = largestFirst(candidates, LARGEST_TRACKED);
+
+        int[] kept = Arrays.copyOfRange(byDate, count, byDate.length);
+        Arrays.sort(kept);
+        ExpenseStore old = expenses;
+        expenses = new ExpenseStore(old.getCategories());
+        expenses.ensureCapacity(kept.length);
+        dateIndex = new ExpenseDateIndex();
+        searchIndex = new ExpenseSearchIndex();
+        largest = new ExpenseRanking(LARGEST_TRACKED);
+        for (int row : kept) {
+            addHotRow(old.categoryIdAt(row), old.centsAt(row), old.epochDayAt(row), old.descriptionAt(row));
+        }
+        List<ExpenseSegment> grown = new ArrayList<>(segments);
+        grown.add(segment);
+        segments = grown;
+        sealedRows += count;
+    }
+
+    // rows on days before the given one, sealed and hot, which is the position of the first row on or after it
+    // callers hold the read lock
+    private long rowsBefore(int epochDay) {
+        long rows = dateIndex.offsetOf(epochDay);
+        for (ExpenseSegment segment : segments) {
+            rows += segment.rowsBefore(epochDay);
+        }
+        return rows;
+    }
+
+    // cents between two days from the per-day totals of the date index and the segment summaries
+    // callers hold the read lock
+    private long centsBetween(int fromDay, int toDay) {
+        long cents = dateIndex.totalBetween(fromDay, toDay);
+        for (ExpenseSegment segment : segments) {
+            if (segment.overlaps(fromDay, toDay)) {
+                cents += segment.totalBetween(fromDay, toDay);
+            }
+        }
+        return cents;
+    }
+
+    // callers hold the read lock
+    private List<Expense> expensesBetween(int fromDay, int toDay) {
+        if (segments.isEmpty()) {
+            return toExpenses(dateIndex.rowsBetween(fromDay, toDay));
+        }
+        return collect(new DateOrderedRows(fromDay, toDay), 0, Integer.MAX_VALUE);
+    }
+
+    // skips the first rows of the source and turns up to limit of the ones after into expenses
+    private static List<Expense> collect(ExpenseCsvWriter.RowSource rows, long skip, int limit) {
+        List<Expense> result = new ArrayList<>();
+        try {
+            while (result.size() < limit && rows.next()) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    result.add(rows.store().get(rows.row()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read segment", e);
+        }
+        return result;
+    }
+
+    // the hot rows are only read under the read lock, the segments need none
+    private Iterator<Expense> iterate(DateOrderedRows rows) {
+        return new Iterator<Expense>() {
+            private Expense next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    lock.readLock().lock();
+                    try {
+                        if (rows.next()) {
+                            next = rows.store().get(rows.row());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not read segment", e);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Expense next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Expense expense = next;
+                next = null;
+                return expense;
+            }
+        };
+    }
+
+    private static List<Expense> largestOf(ExpenseStore store, int k) {
+        ExpenseRanking ranking = new ExpenseRanking(k);
+        for (int row = 0; row < store.size(); row++) {
+            ranking.offer(row, store.centsAt(row));
+        }
+        List<Expense> result = new ArrayList<>();
+        for (int row : ranking.largestRows(k)) {
+            result.add(store.get(row));
+        }
+        return result;
+    }
+
+    // the k largest of the candidates, largest first; the sort is stable so ties keep the candidates' order
+    private static List<Expense> largestFirst(List<Expense> candidates, int k) {
+        candidates.sort((a, b) -> Double.compare(b.getAmount(), a.getAmount()));
+        return new ArrayList<>(candidates.subList(0, Math.min(k, candidates.size())));
+    }
+
+    // walks the expenses between two days in date order across the segments and the hot rows
+    // a segment is only read once the walk reaches its first day and is let go once used up, so only segments
+    // overlapping the current day are in memory; same-day rows come out sealed first, each in the order added
+    // the rows are fixed when it is created, under the read lock, and expenses added later are not included
+    private class DateOrderedRows implements ExpenseCsvWriter.RowSource {
+        private final int fromDay;
+        private final int toDay;
+        private final Deque<Run> unread;
+        private final PriorityQueue<Run> open;
+        private Run current;
+
+        DateOrderedRows(int fromDay, int toDay) {
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            List<Run> overlapping = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).overlaps(fromDay, toDay)) {
+                    overlapping.add(new Run(i, segments.get(i)));
+                }
+            }
+            overlapping.sort(Comparator.comparingInt(run -> run.segment.firstDay()));
+            this.unread = new ArrayDeque<>(overlapping);
+            this.open = new PriorityQueue<>((a, b) -> a.day() != b.day()
+                    ? Integer.compare(a.day(), b.day()) : Integer.compare(a.order, b.order));
+            Run hot = new Run(segments.size(), expenses, dateIndex.rowsBetween(fromDay, toDay));
+            if (hot.hasRows()) {
+                open.add(hot);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (current != null) {
+                current.position++;
+                if (current.hasRows()) {
+                    open.add(current);
+                }
+            }
+            while (!unread.isEmpty()
+                    && (open.isEmpty() || Math.max(unread.peek().segment.firstDay(), fromDay) <= open.peek().day())) {
+                Run run = unread.poll();
+                run.read(categories, fromDay, toDay);
+                if (run.hasRows()) {
+                    open.add(run);
+                }
+            }
+            current = open.poll();
+            return current != null;
+        }
+
+        @Override
+        public ExpenseStore store() {
+            return current.store;
+        }
+
+        @Override
+        public int row() {
+            return current.row();
+        }
+    }
+
+    // date ordered rows of one segment or of the hot store; order breaks ties between runs on the same day
+    private static class Run {
+        private final int order;
+        private final ExpenseSegment segment;
+        private ExpenseStore store;
+        // the hot rows come from the date index, a segment's rows are already in date order
+        private int[] rows;
+        private int position;
+        private int end;
+
+        Run(int order, ExpenseSegment segment) {
+            this.order = order;
+            this.segment = segment;
+        }
+
+        Run(int order, ExpenseStore store, int[] rows) {
+            this.order = order;
+            this.segment = null;
+            this.store = store;
+            this.rows = rows;
+            this.end = rows.length;
+        }
+
+        void read(CategoryDictionary categories, int fromDay, int toDay) throws IOException {
+            store = segment.load(categories);
+            position = segment.rowsBefore(fromDay);
+            end = segment.rowsBefore(toDay + 1L);
+        }
+
+        boolean hasRows() {
+            return position < end;
+        }
+
+        int row() {
+            return rows == null ? position : rows[position];
+        }
+
+        int day() {
+            return store.epochDayAt(row());
+        }
+    }
+
+    // the running count and total of a search and the earliest matches of each part searched
+    private static class Matches {
+        private final int categoryId;
+        private final int fromDay;
+        private final int toDay;
+        private final List<Expense> shown;
+        private int count;
+        private long cents;
+
+        Matches(int categoryId, int fromDay, int toDay) {
+            this.categoryId = categoryId;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.shown = new ArrayList<>();
+        }
+
+        // keeps the rows in the date range and category in place, returns how many were kept and counts them
+        // rows never get bigger than the search returned
+        int filter(ExpenseStore store, int[] rows) {
+            int kept = 0;
+            for (int row : rows) {
+                int epochDay = store.epochDayAt(row);
+                if (epochDay >= fromDay && epochDay <= toDay
+                        && (categoryId < 0 || store.categoryIdAt(row) == categoryId)) {
+                    rows[kept++] = row;
+                    cents += store.centsAt(row);
+                }
+            }
+            count += kept;
+            return kept;
+        }
+    }
+
+    // the next report queries are computed again, for benchmarks that time the queries themselves
+    void clearReportCache() {
+        reportCache.clear();
+    }
+
+    public ExpenseMetrics getMetrics() {
+        return metrics;
+    }
+
+    // rough heap footprint of the rows, indexes and running aggregates, not counting the jvm itself
+    public long getEstimatedMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            long histograms = LogHistogram.estimatedBytes();
+            for (LogHistogram histogram : categoryAmounts) {
+                if (histogram != null) {
+                    histograms += LogHistogram.estimatedBytes();
+                }
+            }
+            long sealed = 200L * sealedLargest.size();
+            for (ExpenseSegment segment : segments) {
+                sealed += segment.estimatedBytes();
+            }
+            return expenses.estimatedBytes() + dateIndex.estimatedBytes() + searchIndex.estimatedBytes()
+                    + rollup.estimatedBytes() + histograms + sealed + reportCache.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // row count, memory estimate, latency percentiles per operation and the counters as a text table
+    public String getStatsReport() {
+        return metrics.report(getExpensesCount(), getEstimatedMemoryBytes());
+    }
+
+    // publishes the metrics as an MXBean named ExpenseTracker:type=ExpenseManager,id=<n> and returns the name
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName("ExpenseTracker:type=ExpenseManager,id=" + MBEAN_IDS.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new MetricsView(), ExpenseMetricsMXBean.class, true), name);
+        return name;
+    }
+
+    // the JMX view reads straight from the live metrics, nothing is copied on a timer
+    private class MetricsView implements ExpenseMetricsMXBean {
+        @Override
+        public long getRowCount() {
+            return getExpensesCount();
+        }
+
+        @Override
+        public long getEstimatedMemoryBytes() {
+            return ExpenseManager.this.getEstimatedMemoryBytes();
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return metrics.getCounters();
+        }
+
+        @Override
+        public Map<String, Long> getOperationCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (ExpenseMetrics.Operation operation : ExpenseMetrics.Operation.values()) {
+                counts.put(operation.label(), metrics.latency(operation).getCount());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP50Micros() {
+            return latencies(50);
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP99Micros() {
+            return latencies(99);
+        }
+
+        @Override
+        public Map<String, Double> getLatencyMaxMicros() {
+            return latencies(100);
+        }
+
+        @Override
+        public String getReport() {
+            return getStatsReport();
+        }
+
+        private Map<String, Double> latencies(double percent) {
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (ExpenseMetrics.Operation operation : ExpenseMetrics.Operation.values()) {
+                values.put(operation.label(), metrics.latency(operation).percentile(percent) / 1e3);
+            }
+            return values;
+        }
+    }
+
+    private static void printLoadErrors(ExpenseLoadReport report) {
+        List<ExpenseLoadReport.LineError> errors = report.getErrors();
+        if (errors.isEmpty()) {
+            return;
+        }
+        System.out.println("Skipped " + errors.size() + " invalid line(s):");
+        int shown = Math.min(errors.size(), MAX_REPORTED_ERRORS);
+        for (int i = 0; i < shown; i++) {
+            System.out.println("  " + errors.get(i));
+        }
+        if (errors.size() > shown) {
+            System.out.println("  ... and " + (errors.size() - shown) + " more");
+        }
+    }
+
     public void loadSeedData() {
         addExpense("food", 45.50, "11/05/2024", "Grocery shopping");
         addExpense("transport", 30.00, "11/07/2024", "Gas");
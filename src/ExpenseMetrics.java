@@ -0,0 +1,87 @@
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters and latency histograms for one ExpenseManager
+// recording is an adder bump or one histogram add, nothing locks, so it stays on all the time
+public class ExpenseMetrics {
+
+    public enum Operation {
+        ADD, ADD_BATCH, TOTALS, TREND, RANKING, PERCENTILE, LIST, RANGE_TOTAL, SEARCH, LOAD, SAVE, CHECKPOINT;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', ' ');
+        }
+    }
+
+    public enum Counter {
+        ROWS_ADDED, ROWS_REJECTED, ROWS_LOADED, BYTES_READ, LOAD_ERRORS, ROWS_SAVED, BYTES_WRITTEN, CACHE_HITS, CACHE_MISSES;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', ' ');
+        }
+    }
+
+    private final LogHistogram[] latencies;
+    private final LongAdder[] counters;
+
+    public ExpenseMetrics() {
+        this.latencies = new LogHistogram[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LogHistogram();
+        }
+        this.counters = new LongAdder[Counter.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    // records the time since startNanos, taken from System.nanoTime when the operation began
+    public void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].add(System.nanoTime() - startNanos);
+    }
+
+    public void add(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    // latencies of one operation in nanoseconds
+    public LogHistogram latency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            values.put(counter.label(), get(counter));
+        }
+        return values;
+    }
+
+    // a readable table of every operation that ran at least once, then the counters
+    public String report(long rows, long estimatedBytes) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Rows: %d, estimated memory: %.1f MB\n", rows, estimatedBytes / (1024.0 * 1024.0)));
+        text.append(String.format("\n%-14s %10s %12s %12s %12s\n", "Operation", "Count", "p50 (us)", "p99 (us)",
+                "max (us)"));
+        text.append("-".repeat(64)).append('\n');
+        for (Operation operation : Operation.values()) {
+            LogHistogram histogram = latency(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format("%-14s %10d %12.1f %12.1f %12.1f\n", operation.label(), histogram.getCount(),
+                    histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3, histogram.getMax() / 1e3));
+        }
+        text.append('\n');
+        for (Counter counter : Counter.values()) {
+            text.append(String.format("%-14s %10d\n", counter.label(), get(counter)));
+        }
+        return text.toString();
+    }
+}
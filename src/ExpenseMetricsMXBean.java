@@ -0,0 +1,20 @@
+import java.util.Map;
+
+// what ExpenseManager.registerMBean publishes over JMX, latencies are in microseconds
+public interface ExpenseMetricsMXBean {
+    long getRowCount();
+
+    long getEstimatedMemoryBytes();
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getLatencyP50Micros();
+
+    Map<String, Double> getLatencyP99Micros();
+
+    Map<String, Double> getLatencyMaxMicros();
+
+    String getReport();
+}
@@ -0,0 +1,36 @@
+// amounts are kept as a long number of cents so totals never drift
+// the summing kernels are plain counted loops over primitive arrays with no branches,
+// which is the shape the JIT unrolls and vectorizes
+public final class ExpenseMoney {
+    // the largest single expense, 10,000,000.00; billions of them still sum to far less than a long can hold,
+    // so the running totals never overflow
+    public static final long MAX_CENTS = 1_000_000_000L;
+    public static final String MAX_MESSAGE = "Amount cannot be more than 10000000.00";
+
+    private ExpenseMoney() {
+    }
+
+    // rounds to the nearest cent
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    public static long sum(long[] cents, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += cents[i];
+        }
+        return total;
+    }
+
+    // adds each amount into totals[categoryId], totals must be long enough for every id
+    public static void sumByCategory(long[] cents, int[] categoryIds, int from, int to, long[] totals) {
+        for (int i = from; i < to; i++) {
+            totals[categoryIds[i]] += cents[i];
+        }
+    }
+}
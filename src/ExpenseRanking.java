@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+// keeps the rows of the largest expenses seen so far in a bounded min-heap keyed by amount in cents
+// an expense smaller than everything kept is turned away without taking the lock
+public class ExpenseRanking {
+    private final int capacity;
+    private final long[] heapCents;
+    private final int[] heapRows;
+    private int size;
+    // smallest amount kept once the heap is full, anything not above it cannot get in
+    private volatile long threshold;
+
+    public ExpenseRanking(int capacity) {
+        this.capacity = capacity;
+        this.heapCents = new long[capacity];
+        this.heapRows = new int[capacity];
+        // an empty ranking turns everything away
+        this.threshold = capacity == 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void offer(int row, long cents) {
+        if (cents <= threshold) {
+            return;
+        }
+        synchronized (this) {
+            if (size < capacity) {
+                heapCents[size] = cents;
+                heapRows[size] = row;
+                siftUp(size++);
+            } else if (cents > heapCents[0]) {
+                heapCents[0] = cents;
+                heapRows[0] = row;
+                siftDown(0);
+            }
+            if (size == capacity) {
+                threshold = heapCents[0];
+            }
+        }
+    }
+
+    // rows of the k largest expenses kept, largest first, ties in the order they were added
+    public synchronized int[] largestRows(int k) {
+        int count = Math.min(k, size);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> heapCents[a] != heapCents[b]
+                ? Long.compare(heapCents[b], heapCents[a]) : Integer.compare(heapRows[a], heapRows[b]));
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = heapRows[order[i]];
+        }
+        return rows;
+    }
+
+    // ids of the k largest (or smallest) values, in that order, ties go to the lower id
+    // meant for per-category totals, where there are only as many values as categories
+    public static int[] rank(long[] values, int k, boolean largest) {
+        Integer[] ids = new Integer[values.length];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = id;
+        }
+        Arrays.sort(ids, (a, b) -> values[a] != values[b]
+                ? (largest ? Long.compare(values[b], values[a]) : Long.compare(values[a], values[b]))
+                : Integer.compare(a, b));
+        int[] top = new int[Math.min(k, ids.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = ids[i];
+        }
+        return top;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heapCents[parent] <= heapCents[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && heapCents[left] < heapCents[smallest]) {
+                smallest = left;
+            }
+            if (right < size && heapCents[right] < heapCents[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long cents = heapCents[a];
+        heapCents[a] = heapCents[b];
+        heapCents[b] = cents;
+        int row = heapRows[a];
+        heapRows[a] = heapRows[b];
+        heapRows[b] = row;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// results of repeated report queries, keyed by the report and its parameters
+// each result is stored with a change mark the caller reads before computing it: the running total in cents of
+// everything the result covers, e.g. the rollup's food totals of the months of a trend; every expense is positive,
+// so that total stays the same exactly as long as nothing it covers was added and a result is served only while
+// its mark still matches; adding a December expense keeps a January food trend cached
+// writers do nothing for the cache, the totals they already keep are the marks
+// idle results are dropped least recently used first once their estimated size passes the budget
+//
+// safe to use from several threads, results are computed outside the lock and the lock only guards the map
+// callers must read the mark from counters that writers bump after the data the result is computed from,
+// so a result computed while an add lands is stored under a mark that is already out of date, never lost
+public class ExpenseReportCache {
+    private final long budgetBytes;
+    private final ExpenseMetrics metrics;
+    // in access order, the first entry is the one used longest ago
+    private final LinkedHashMap<List<Object>, Entry> entries;
+    private long bytes;
+
+    public ExpenseReportCache(long budgetBytes, ExpenseMetrics metrics) {
+        this.budgetBytes = budgetBytes;
+        this.metrics = metrics;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // the cached result for the key if it was computed at the same mark, otherwise computes and caches a new one
+    // results are shared between callers, so callers hand out copies of anything mutable
+    @SuppressWarnings("unchecked")
+    public <T> T get(List<Object> key, long mark, Supplier<T> compute) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.mark == mark) {
+                    metrics.add(ExpenseMetrics.Counter.CACHE_HITS, 1);
+                    return (T) entry.value;
+                }
+                entries.remove(key);
+                bytes -= entry.bytes;
+            }
+        }
+        metrics.add(ExpenseMetrics.Counter.CACHE_MISSES, 1);
+        T value = compute.get();
+        Entry entry = new Entry(value, mark);
+        synchronized (this) {
+            if (entry.bytes <= budgetBytes) {
+                Entry replaced = entries.put(key, entry);
+                if (replaced != null) {
+                    bytes -= replaced.bytes;
+                }
+                bytes += entry.bytes;
+                evictIdle();
+            }
+        }
+        return value;
+    }
+
+    // drops every cached result
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long estimatedBytes() {
+        return bytes;
+    }
+
+    private void evictIdle() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > budgetBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long mark;
+        private final long bytes;
+
+        Entry(Object value, long mark) {
+            this.value = value;
+            this.mark = mark;
+            // the entry, its key and map node, plus a label, a boxed total and a node per map entry
+            this.bytes = 160 + (value instanceof Map ? 120L * ((Map<?, ?>) value).size() : 0);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.time.Month;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// pre-aggregated totals in cents per day, week, month and year, each split by category
+// buckets are keyed by plain ints and live in arrays indexed by key, so an add is four array lookups
+// and a trend or drill-down only reads the buckets in its range, never single expenses
+//
+// adds and reads need no lock: every cell is an adder, a bucket array is replaced (never resized in place)
+// when a key falls outside it, and a bucket slot is only ever filled once
+public class ExpenseRollup {
+
+    // bucket keys: day = epoch day, week = month key * 5 + week of month - 1, month = year * 12 + month - 1, year = year
+    // week n of a month covers days 7n-6 to 7n, the same weeks getWeeklyTrend has always used
+    public enum Level {
+        DAY, WEEK, MONTH, YEAR;
+
+        public int keyOf(int epochDay) {
+            int date = ExpenseDates.toYearMonthDay(epochDay);
+            int monthKey = ExpenseDates.year(date) * 12 + ExpenseDates.month(date) - 1;
+            switch (this) {
+                case DAY:
+                    return epochDay;
+                case WEEK:
+                    return monthKey * 5 + (ExpenseDates.dayOfMonth(date) - 1) / 7;
+                case MONTH:
+                    return monthKey;
+                default:
+                    return ExpenseDates.year(date);
+            }
+        }
+
+        // first day of the bucket, as an epoch day
+        public int firstDay(int key) {
+            switch (this) {
+                case DAY:
+                    return key;
+                case WEEK:
+                    return ExpenseDates.toEpochDay((key / 5) / 12, (key / 5) % 12 + 1, (key % 5) * 7 + 1);
+                case MONTH:
+                    return ExpenseDates.toEpochDay(key / 12, key % 12 + 1, 1);
+                default:
+                    return ExpenseDates.toEpochDay(key, 1, 1);
+            }
+        }
+
+        // readable label: 11/05/2024, Nov 2024 - Week 1, November 2024, 2024
+        public String label(int key) {
+            switch (this) {
+                case DAY:
+                    return ExpenseDates.format(key);
+                case WEEK:
+                    String monthName = Month.of((key / 5) % 12 + 1).toString().substring(0, 3);
+                    return monthName.charAt(0) + monthName.substring(1).toLowerCase() + " " + (key / 5) / 12
+                            + " - Week " + (key % 5 + 1);
+                case MONTH:
+                    return ExpenseDates.monthLabel(firstDay(key));
+                default:
+                    return Integer.toString(key);
+            }
+        }
+    }
+
+    private final Buckets[] levels;
+
+    public ExpenseRollup() {
+        this.levels = new Buckets[Level.values().length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Buckets();
+        }
+    }
+
+    // the month level goes last, so a month total that includes an expense means every level does, see sum
+    public void add(int categoryId, long cents, int epochDay) {
+        int date = ExpenseDates.toYearMonthDay(epochDay);
+        int monthKey = ExpenseDates.year(date) * 12 + ExpenseDates.month(date) - 1;
+        levels[Level.DAY.ordinal()].get(epochDay).add(categoryId, cents);
+        levels[Level.WEEK.ordinal()].get(monthKey * 5 + (ExpenseDates.dayOfMonth(date) - 1) / 7).add(categoryId, cents);
+        levels[Level.YEAR.ordinal()].get(ExpenseDates.year(date)).add(categoryId, cents);
+        levels[Level.MONTH.ordinal()].get(monthKey).add(categoryId, cents);
+    }
+
+    // total of the buckets between the two keys (both included), 0 when fromKey is after toKey
+    // categoryId -1 means all categories
+    public long sum(Level level, int categoryId, int fromKey, int toKey) {
+        Span span = levels[level.ordinal()].span;
+        int first = (int) Math.max((long) fromKey - span.base, 0L);
+        int last = (int) Math.min((long) toKey - span.base, span.buckets.length - 1L);
+        long total = 0;
+        for (int i = first; i <= last; i++) {
+            Bucket bucket = span.buckets[i];
+            if (bucket != null) {
+                total += bucket.sum(categoryId);
+            }
+        }
+        return total;
+    }
+
+    // totals of every non-empty bucket between the two keys (both included), in order
+    // categoryId -1 means all categories
+    public NavigableMap<Integer, Long> trend(Level level, int categoryId, int fromKey, int toKey) {
+        NavigableMap<Integer, Long> totals = new TreeMap<>();
+        Span span = levels[level.ordinal()].span;
+        int first = (int) Math.max((long) fromKey - span.base, 0L);
+        int last = (int) Math.min((long) toKey - span.base, span.buckets.length - 1L);
+        for (int i = first; i <= last; i++) {
+            Bucket bucket = span.buckets[i];
+            if (bucket != null && bucket.hasCategory(categoryId)) {
+                totals.put(span.base + i, bucket.sum(categoryId));
+            }
+        }
+        return totals;
+    }
+
+    // rough heap footprint: an adder per bucket and per category within it, plus the bucket arrays
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Buckets level : levels) {
+            Span span = level.span;
+            bytes += 16L + 4L * span.buckets.length;
+            for (Bucket bucket : span.buckets) {
+                if (bucket != null) {
+                    bytes += 16 + 32 + 16 + 4L * bucket.byCategory.length + 32L * bucket.byCategory.length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // the buckets of one level, stored in an array that starts at the smallest key seen so far
+    private static class Buckets {
+        private volatile Span span = new Span(0, new Bucket[0]);
+
+        Bucket get(int key) {
+            Span current = span;
+            int index = key - current.base;
+            if (index >= 0 && index < current.buckets.length) {
+                Bucket bucket = current.buckets[index];
+                if (bucket != null) {
+                    return bucket;
+                }
+            }
+            return create(key);
+        }
+
+        private synchronized Bucket create(int key) {
+            Span current = span;
+            if (current.buckets.length == 0) {
+                current = new Span(key, new Bucket[1]);
+            } else if (key < current.base || key >= current.base + current.buckets.length) {
+                // grow to cover the new key with some slack in the direction we grew
+                int low = Math.min(key, current.base);
+                int high = Math.max(key, current.base + current.buckets.length - 1);
+                int slack = Math.max(8, (high - low) / 4);
+                int newBase = key < current.base ? low - slack : low;
+                int newLength = high - newBase + 1 + (key >= current.base ? slack : 0);
+                Bucket[] grown = new Bucket[newLength];
+                System.arraycopy(current.buckets, 0, grown, current.base - newBase, current.buckets.length);
+                current = new Span(newBase, grown);
+            }
+            int index = key - current.base;
+            if (current.buckets[index] == null) {
+                current.buckets[index] = new Bucket();
+            }
+            span = current;
+            return current.buckets[index];
+        }
+    }
+
+    private static class Span {
+        private final int base;
+        private final Bucket[] buckets;
+
+        Span(int base, Bucket[] buckets) {
+            this.base = base;
+            this.buckets = buckets;
+        }
+    }
+
+    // one cell of the cube: the bucket total plus one adder per category
+    private static class Bucket {
+        private final LongAdder total = new LongAdder();
+        private volatile LongAdder[] byCategory = new LongAdder[0];
+
+        void add(int categoryId, long cents) {
+            total.add(cents);
+            category(categoryId).add(cents);
+        }
+
+        boolean hasCategory(int categoryId) {
+            if (categoryId < 0) {
+                return true;
+            }
+            LongAdder[] categories = byCategory;
+            return categoryId < categories.length && categories[categoryId] != null;
+        }
+
+        long sum(int categoryId) {
+            if (categoryId < 0) {
+                return total.sum();
+            }
+            LongAdder[] categories = byCategory;
+            if (categoryId >= categories.length || categories[categoryId] == null) {
+                return 0;
+            }
+            return categories[categoryId].sum();
+        }
+
+        private LongAdder category(int categoryId) {
+            LongAdder[] categories = byCategory;
+            if (categoryId < categories.length && categories[categoryId] != null) {
+                return categories[categoryId];
+            }
+            synchronized (this) {
+                categories = byCategory;
+                if (categoryId < categories.length && categories[categoryId] != null) {
+                    return categories[categoryId];
+                }
+                LongAdder[] grown = Arrays.copyOf(categories, Math.max(categories.length, categoryId + 1));
+                grown[categoryId] = new LongAdder();
+                byCategory = grown;
+                return grown[categoryId];
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// inverted index from the words in descriptions and category names to the rows that contain them
+// words are runs of letters and digits, lowercased, kept in a sorted map so a prefix is a range of it
+// each posting list holds its rows in ascending order as varint-encoded gaps, usually one byte per row
+//
+// not thread safe on its own, ExpenseManager adds under its write lock and searches under its read lock
+public class ExpenseSearchIndex {
+    // descriptions repeat a lot, so the word lookups for recent ones are kept instead of re-tokenizing
+    private static final int MAX_CACHED_DESCRIPTIONS = 65536;
+
+    private final NavigableMap<String, Postings> words;
+    private final Map<String, Postings[]> descriptionWords;
+    private Postings[][] categoryWords;
+
+    public ExpenseSearchIndex() {
+        this.words = new TreeMap<>();
+        this.descriptionWords = new HashMap<>();
+        this.categoryWords = new Postings[0][];
+    }
+
+    // rows must be added in ascending order, which is the order the store hands them out
+    public void add(int row, int categoryId, String category, String description) {
+        if (categoryId >= categoryWords.length) {
+            categoryWords = Arrays.copyOf(categoryWords, Math.max(categoryId + 1, categoryWords.length * 2));
+        }
+        if (categoryWords[categoryId] == null) {
+            categoryWords[categoryId] = postingsFor(category);
+        }
+        for (Postings postings : categoryWords[categoryId]) {
+            postings.add(row);
+        }
+
+        if (description == null || description.isEmpty()) {
+            return;
+        }
+        Postings[] cached = descriptionWords.get(description);
+        if (cached == null) {
+            cached = postingsFor(description);
+            if (descriptionWords.size() >= MAX_CACHED_DESCRIPTIONS) {
+                descriptionWords.clear();
+            }
+            descriptionWords.put(description, cached);
+        }
+        for (Postings postings : cached) {
+            postings.add(row);
+        }
+    }
+
+    // rows containing every word of the query in ascending order, a word ending in * matches as a prefix
+    // e.g. "uber" or "elec* bill"; returns null when the query has no words at all
+    public int[] search(String query) {
+        List<Match> matches = new ArrayList<>();
+        for (String part : query.trim().split("\\s+")) {
+            List<String> terms = tokenize(part);
+            for (int i = 0; i < terms.size(); i++) {
+                boolean prefix = i == terms.size() - 1 && part.endsWith("*");
+                matches.add(prefix ? new Match(rowsWithPrefix(terms.get(i))) : new Match(words.get(terms.get(i))));
+            }
+        }
+        if (matches.isEmpty()) {
+            return null;
+        }
+        // intersect starting from the rarest word so the candidate list only shrinks,
+        // the longer lists are only walked, never decoded into arrays
+        matches.sort((a, b) -> Integer.compare(a.count(), b.count()));
+        int[] rows = matches.get(0).rows();
+        for (int i = 1; i < matches.size() && rows.length > 0; i++) {
+            Match match = matches.get(i);
+            rows = match.postings != null ? match.postings.retain(rows) : intersect(rows, match.rows);
+        }
+        return rows;
+    }
+
+    // rough heap footprint: the encoded posting lists plus each word, its list object and map entry
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, Postings> entry : words.entrySet()) {
+            bytes += entry.getValue().bytes.length + 16 + 32 + 40 + entry.getKey().length() + 40;
+        }
+        return bytes;
+    }
+
+    // lowercased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private Postings[] postingsFor(String text) {
+        List<String> tokens = tokenize(text);
+        Postings[] postings = new Postings[tokens.size()];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = words.computeIfAbsent(tokens.get(i), word -> new Postings());
+        }
+        return postings;
+    }
+
+    // the posting lists of every word starting with the prefix, merged into one ascending list
+    private int[] rowsWithPrefix(String prefix) {
+        NavigableMap<String, Postings> range = words.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.size() == 1) {
+            return range.firstEntry().getValue().decode();
+        }
+        int count = 0;
+        for (Postings postings : range.values()) {
+            count += postings.count;
+        }
+        int[] rows = new int[count];
+        int position = 0;
+        for (Postings postings : range.values()) {
+            position = postings.decodeInto(rows, position);
+        }
+        Arrays.sort(rows);
+        // a row holding two of the words shows up twice
+        int distinct = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (i == 0 || rows[i] != rows[i - 1]) {
+                rows[distinct++] = rows[i];
+            }
+        }
+        return Arrays.copyOf(rows, distinct);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // one word of a query: a single posting list, or the already merged rows of a prefix
+    private static class Match {
+        private final Postings postings;
+        private final int[] rows;
+
+        Match(Postings postings) {
+            this.postings = postings;
+            this.rows = postings == null ? new int[0] : null;
+        }
+
+        Match(int[] rows) {
+            this.postings = null;
+            this.rows = rows;
+        }
+
+        int count() {
+            return postings != null ? postings.count : rows.length;
+        }
+
+        int[] rows() {
+            return postings != null ? postings.decode() : rows;
+        }
+    }
+
+    // ascending rows stored as the gap to the previous row, 7 bits per byte, high bit set on all but the last byte
+    private static class Postings {
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int count;
+        private int last = -1;
+
+        void add(int row) {
+            // a word used twice in the same row is only listed once
+            if (row == last) {
+                return;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int gap = row - last;
+            while (gap >= 0x80) {
+                bytes[length++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = row;
+            count++;
+        }
+
+        int[] decode() {
+            int[] rows = new int[count];
+            decodeInto(rows, 0);
+            return rows;
+        }
+
+        int decodeInto(int[] rows, int position) {
+            int row = -1;
+            int index = 0;
+            while (index < length) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[index++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += gap;
+                rows[position++] = row;
+            }
+            return position;
+        }
+
+        // keeps the candidate rows that are also in this list, reusing the candidate array
+        int[] retain(int[] candidates) {
+            int kept = 0;
+            int row = -1;
+            int index = 0;
+            for (int candidate : candidates) {
+                while (row < candidate && index < length) {
+                    int gap = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = bytes[index++];
+                        gap |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    row += gap;
+                }
+                if (row == candidate) {
+                    candidates[kept++] = candidate;
+                } else if (row < candidate) {
+                    break;
+                }
+            }
+            return Arrays.copyOf(candidates, kept);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.List;
+
+// what a search or a date range found: the first matching expenses in date order,
+// and the count and total of all matches
+public class ExpenseSearchResult {
+    private List<Expense> expenses;
+    private int matchCount;
+    private double total;
+    private long elapsedNanos;
+
+    public ExpenseSearchResult(List<Expense> expenses, int matchCount, double total, long elapsedNanos) {
+        this.expenses = expenses;
+        this.matchCount = matchCount;
+        this.total = total;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<Expense> getExpenses() {
+        return expenses;
+    }
+
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// an immutable run of older expenses sealed to disk in date order, in the ExpenseBinaryFile format
+// only a summary stays on the heap: the date range, row count and total per day and the total per category,
+// so range totals, positions and skipping a segment never touch the file
+// the rows themselves are read back only when a query needs them, into a store that is dropped afterwards
+public class ExpenseSegment {
+    private final Path file;
+    private final int size;
+    // distinct days in ascending order; rowsBefore and centsBefore hold the running count and total of the
+    // rows before each day, with one extra slot at the end for the whole segment
+    private final int[] days;
+    private final int[] rowsBefore;
+    private final long[] centsBefore;
+    private final long[] categoryTotals;
+
+    private ExpenseSegment(Path file, int size, int[] days, int[] rowsBefore, long[] centsBefore,
+            long[] categoryTotals) {
+        this.file = file;
+        this.size = size;
+        this.days = days;
+        this.rowsBefore = rowsBefore;
+        this.centsBefore = centsBefore;
+        this.categoryTotals = categoryTotals;
+    }
+
+    // writes the rows, which must already be in date order, and summarizes them on the way
+    public static ExpenseSegment write(ExpenseStore store, int[] rows, Path file) throws IOException {
+        if (rows.length == 0) {
+            throw new IllegalArgumentException("A segment needs at least one expense");
+        }
+        int[] days = new int[16];
+        int[] rowsBefore = new int[17];
+        long[] centsBefore = new long[17];
+        long[] categoryTotals = new long[store.getCategories().size()];
+        int dayCount = 0;
+        long cents = 0;
+        for (int i = 0; i < rows.length; i++) {
+            int epochDay = store.epochDayAt(rows[i]);
+            if (dayCount == 0 || epochDay != days[dayCount - 1]) {
+                if (dayCount > 0 && epochDay < days[dayCount - 1]) {
+                    throw new IllegalArgumentException("Segment rows must be in date order");
+                }
+                if (dayCount == days.length) {
+                    days = Arrays.copyOf(days, dayCount * 2);
+                    rowsBefore = Arrays.copyOf(rowsBefore, dayCount * 2 + 1);
+                    centsBefore = Arrays.copyOf(centsBefore, dayCount * 2 + 1);
+                }
+                days[dayCount] = epochDay;
+                rowsBefore[dayCount] = i;
+                centsBefore[dayCount] = cents;
+                dayCount++;
+            }
+            cents += store.centsAt(rows[i]);
+            categoryTotals[store.categoryIdAt(rows[i])] += store.centsAt(rows[i]);
+        }
+        rowsBefore[dayCount] = rows.length;
+        centsBefore[dayCount] = cents;
+
+        ExpenseBinaryFile.write(store, rows, file.toString());
+        return new ExpenseSegment(file, rows.length, Arrays.copyOf(days, dayCount),
+                Arrays.copyOf(rowsBefore, dayCount + 1), Arrays.copyOf(centsBefore, dayCount + 1), categoryTotals);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int firstDay() {
+        return days[0];
+    }
+
+    public int lastDay() {
+        return days[days.length - 1];
+    }
+
+    // true when some row of the segment falls between the two days, both included
+    public boolean overlaps(int fromDay, int toDay) {
+        return fromDay <= lastDay() && toDay >= firstDay() && rowsBefore(fromDay) < rowsBefore(toDay + 1L);
+    }
+
+    public boolean hasCategory(int categoryId) {
+        return categoryId < categoryTotals.length && categoryTotals[categoryId] > 0;
+    }
+
+    // how many rows fall on days before the given one, which is also the position of the first row on or after it
+    public int rowsBefore(long epochDay) {
+        return rowsBefore[dayIndex(epochDay)];
+    }
+
+    // total in cents of the rows between the two days, both included
+    public long totalBetween(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return 0;
+        }
+        return centsBefore[dayIndex(toDay + 1L)] - centsBefore[dayIndex(fromDay)];
+    }
+
+    // reads every row back into a new store sharing the given dictionary, row i of the store is row i in date order
+    public ExpenseStore load(CategoryDictionary categories) throws IOException {
+        ExpenseBinaryFile.Columns columns = ExpenseBinaryFile.read(file.toString());
+        String[] names = columns.getCategoryNames();
+        int[] categoryIds = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            categoryIds[i] = categories.idOf(names[i]);
+        }
+        ExpenseStore store = new ExpenseStore(categories);
+        store.ensureCapacity(columns.size());
+        long[] cents = columns.getCents();
+        int[] epochDays = columns.getEpochDays();
+        int[] fileCategoryIds = columns.getCategoryIds();
+        String[] descriptions = columns.getDescriptions();
+        for (int row = 0; row < columns.size(); row++) {
+            store.add(categoryIds[fileCategoryIds[row]], cents[row], epochDays[row], descriptions[row]);
+        }
+        return store;
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    // rough heap footprint of the summary, the rows themselves are on disk
+    public long estimatedBytes() {
+        return 64L + 16L * days.length + 8L * categoryTotals.length;
+    }
+
+    // index of the first day on or after the given one
+    private int dayIndex(long epochDay) {
+        if (epochDay > Integer.MAX_VALUE) {
+            return days.length;
+        }
+        int index = Arrays.binarySearch(days, (int) Math.max(epochDay, Integer.MIN_VALUE));
+        return index >= 0 ? index : -index - 1;
+    }
+}
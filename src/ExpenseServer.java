@@ -0,0 +1,323 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// a small http/json service over one ExpenseManager, for dashboards and scripts, bound to localhost only
+//
+//   GET  /totals                                     total and total per category
+//   GET  /trend?level=month&category=&from=&to=      level is day, week, month or year (default month),
+//                                                    category and the MM/dd/yyyy dates are optional
+//   GET  /range?from=&to=&limit=                     total, count and the first limit expenses (default 100)
+//   POST /expenses                                   category,amount,MM/dd/yyyy,description lines, added as one batch
+//
+// errors come back as {"error": "..."} with a 4xx status, or 500 when the manager itself fails
+// every request runs on its own virtual thread when the jvm has them (java 21+), otherwise on a fixed pool
+// reads never take the manager's write lock: totals and trends come from the running aggregates and the report
+// cache, a range takes the read lock once for its total, count and listing, which only reads the listed rows,
+// so however many readers there are, an add waits at most for one of those listings
+public class ExpenseServer {
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_RANGE_LIMIT = 100;
+    private static final int MAX_RANGE_LIMIT = 1000;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    // threads of the fallback pool when virtual threads are not available
+    private static final int POOL_THREADS = 64;
+    private static final int BACKLOG = 1024;
+
+    // the jdk server writes the headers and the body separately, with nagle on the body then waits for the
+    // client's delayed ack, about 40 ms per small response; the property is read once, when the first server starts
+    static {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ExpenseManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // port 0 picks a free port, see getPort
+    public ExpenseServer(ExpenseManager manager, int port) throws IOException {
+        this.manager = manager;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/totals", exchange -> handle(exchange, "GET", this::totals));
+        server.createContext("/trend", exchange -> handle(exchange, "GET", this::trend));
+        server.createContext("/range", exchange -> handle(exchange, "GET", this::range));
+        server.createContext("/expenses", exchange -> handle(exchange, "POST", this::addExpenses));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // stops accepting requests and waits up to a second for the ones in flight
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // a virtual thread per task where the jvm has them, looked up by reflection so this still builds on java 17
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(POOL_THREADS, task -> {
+                Thread thread = new Thread(task, "expense-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private interface Handler {
+        String respond(HttpExchange exchange, Map<String, String> query) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", method);
+                    status = 405;
+                    body = error("Use " + method);
+                } else {
+                    body = handler.respond(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (BodyTooLargeException e) {
+                status = 413;
+                body = error("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            } catch (RuntimeException e) {
+                status = 500;
+                body = error(e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String totals(HttpExchange exchange, Map<String, String> query) {
+        StringBuilder json = new StringBuilder("{\"total\":");
+        appendAmount(json, manager.getTotalExpenses());
+        json.append(",\"categories\":");
+        appendAmounts(json, manager.getTotalByCategory());
+        return json.append('}').toString();
+    }
+
+    private String trend(HttpExchange exchange, Map<String, String> query) {
+        String levelName = query.getOrDefault("level", "month");
+        ExpenseRollup.Level level;
+        try {
+            level = ExpenseRollup.Level.valueOf(levelName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown level: " + levelName + " (use day, week, month or year)");
+        }
+        Map<String, Double> trend = manager.getTrend(level, query.get("category"), date(query, "from"), date(query, "to"));
+        StringBuilder json = new StringBuilder("{\"level\":");
+        appendString(json, levelName.toLowerCase(Locale.ROOT));
+        json.append(",\"trend\":");
+        appendAmounts(json, trend);
+        return json.append('}').toString();
+    }
+
+    private String range(HttpExchange exchange, Map<String, String> query) {
+        LocalDate from = date(query, "from");
+        LocalDate to = date(query, "to");
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to are required");
+        }
+        int limit = DEFAULT_RANGE_LIMIT;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Integer.parseInt(query.get("limit"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number");
+            }
+            if (limit < 0 || limit > MAX_RANGE_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 0 and " + MAX_RANGE_LIMIT);
+            }
+        }
+        ExpenseSearchResult range = manager.getRange(from, to, limit);
+        StringBuilder json = new StringBuilder("{\"from\":");
+        appendString(json, ExpenseDates.format(from));
+        json.append(",\"to\":");
+        appendString(json, ExpenseDates.format(to));
+        json.append(",\"total\":");
+        appendAmount(json, range.getTotal());
+        json.append(",\"count\":").append(range.getMatchCount()).append(",\"expenses\":[");
+        List<Expense> expenses = range.getExpenses();
+        for (int i = 0; i < expenses.size(); i++) {
+            Expense expense = expenses.get(i);
+            json.append(i == 0 ? "{" : ",{").append("\"category\":");
+            appendString(json, expense.getCategory());
+            json.append(",\"amount\":");
+            appendAmount(json, expense.getAmount());
+            json.append(",\"date\":");
+            appendString(json, ExpenseDates.format(expense.getDate()));
+            json.append(",\"description\":");
+            appendString(json, expense.getDescription());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    // the body goes through the same parser as files and --stream, then in as one batch
+    private String addExpenses(HttpExchange exchange, Map<String, String> query) throws IOException {
+        ExpenseCsvReader.ParsedChunk chunk = ExpenseCsvReader.parse(ByteBuffer.wrap(readBody(exchange)));
+        ExpenseBatch batch = new ExpenseBatch(chunk.size());
+        for (int row = 0; row < chunk.size(); row++) {
+            batch.addCents(chunk.categoryAt(row), chunk.centsAt(row), chunk.epochDayAt(row), chunk.descriptionAt(row));
+        }
+        ExpenseBatchReport report = manager.addExpenses(batch);
+
+        StringBuilder json = new StringBuilder("{\"accepted\":").append(report.getAccepted());
+        json.append(",\"rejected\":").append(chunk.getErrorCount() + report.getRejectedCount());
+        json.append(",\"errors\":[");
+        int shown = 0;
+        for (int i = 0; i < chunk.getErrorCount() && shown < MAX_REPORTED_ERRORS; i++, shown++) {
+            json.append(shown == 0 ? "" : ",");
+            appendString(json, "line " + chunk.getErrorLine(i) + ": " + chunk.getErrorMessage(i));
+        }
+        for (int i = 0; i < report.getRejectedCount() && shown < MAX_REPORTED_ERRORS; i++, shown++) {
+            json.append(shown == 0 ? "" : ",");
+            appendString(json, "row " + (report.getRejectedRow(i) + 1) + ": " + report.getReason(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new BodyTooLargeException();
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    // null when the parameter is missing or empty
+    private static LocalDate date(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return LocalDate.ofEpochDay(ExpenseDates.parseOrThrow(value));
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    private static void appendAmounts(StringBuilder json, Map<String, Double> amounts) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Double> entry : amounts.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(':');
+            appendAmount(json, entry.getValue());
+        }
+        json.append('}');
+    }
+
+    // amounts are whole cents, so two decimals are exact
+    private static void appendAmount(StringBuilder json, double amount) {
+        json.append(String.format(Locale.ROOT, "%.2f", amount));
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,111 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// column oriented storage for expenses
+// each row is spread over primitive arrays instead of being its own object:
+// amounts in cents, dates as epoch days, category ids from the dictionary and pooled descriptions
+public class ExpenseStore {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CategoryDictionary categories;
+    private Map<String, String> descriptionPool;
+
+    private int size;
+    private long[] amounts;
+    private int[] epochDays;
+    private int[] categoryIds;
+    private String[] descriptions;
+
+    public ExpenseStore() {
+        this(new CategoryDictionary());
+    }
+
+    public ExpenseStore(CategoryDictionary categories) {
+        this.categories = categories;
+        this.descriptionPool = new HashMap<>();
+        this.amounts = new long[INITIAL_CAPACITY];
+        this.epochDays = new int[INITIAL_CAPACITY];
+        this.categoryIds = new int[INITIAL_CAPACITY];
+        this.descriptions = new String[INITIAL_CAPACITY];
+    }
+
+    // appends a row and returns its index
+    public int add(int categoryId, long cents, int epochDay, String description) {
+        ensureCapacity(size + 1);
+        amounts[size] = cents;
+        epochDays[size] = epochDay;
+        categoryIds[size] = categoryId;
+        descriptions[size] = pool(description);
+        return size++;
+    }
+
+    // grows every column at once so they always share the same capacity
+    public void ensureCapacity(int capacity) {
+        if (capacity <= amounts.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, amounts.length + (amounts.length >> 1));
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        epochDays = Arrays.copyOf(epochDays, newCapacity);
+        categoryIds = Arrays.copyOf(categoryIds, newCapacity);
+        descriptions = Arrays.copyOf(descriptions, newCapacity);
+    }
+
+    // descriptions repeat a lot (groceries, gas, ...) so equal strings share one instance
+    private String pool(String description) {
+        if (description == null) {
+            return null;
+        }
+        String pooled = descriptionPool.putIfAbsent(description, description);
+        return pooled == null ? description : pooled;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // rough heap footprint: the columns at their current capacity plus each pooled description
+    // (string, its characters and the pool entry)
+    public long estimatedBytes() {
+        long bytes = (long) amounts.length * (8 + 4 + 4 + 4);
+        for (String description : descriptionPool.keySet()) {
+            bytes += 40 + description.length() + 32;
+        }
+        return bytes;
+    }
+
+    public CategoryDictionary getCategories() {
+        return categories;
+    }
+
+    public long centsAt(int row) {
+        return amounts[row];
+    }
+
+    public double amountAt(int row) {
+        return ExpenseMoney.toAmount(amounts[row]);
+    }
+
+    public int epochDayAt(int row) {
+        return epochDays[row];
+    }
+
+    public int categoryIdAt(int row) {
+        return categoryIds[row];
+    }
+
+    public String categoryAt(int row) {
+        return categories.nameOf(categoryIds[row]);
+    }
+
+    public String descriptionAt(int row) {
+        return descriptions[row];
+    }
+
+    // builds an Expense object for a row, only done when a caller asks for one
+    public Expense get(int row) {
+        return new Expense(categoryAt(row), amountAt(row), LocalDate.ofEpochDay(epochDays[row]), descriptions[row]);
+    }
+}
@@ -1,7 +1,3 @@
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.time.format.ResolverStyle;
 import java.util.Map;
 import java.util.List;
 import java.util.Scanner;
@@ -11,10 +7,22 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.File;
+import java.time.LocalDate;
+import javax.management.JMException;
 
 public class ExpenseTracker {
+    private static final int MAX_SEARCH_RESULTS = 50;
+    private static final int PAGE_SIZE = 20;
+    // ledgers kept in memory at once with --workspace, the least recently used ones are written back beyond that
+    private static final int MAX_LOADED_LEDGERS = 16;
+    private static final String DEFAULT_LEDGER = "default";
+
     private ExpenseManager expenseManager;
     private Scanner scanner;
+    private boolean printStatsOnExit;
+    // set with --workspace, expenseManager is then the current ledger and is asked for again on every menu choice
+    private ExpenseWorkspace workspace;
+    private String ledgerName;
 
     public ExpenseTracker() {
         this.expenseManager = new ExpenseManager();
@@ -28,6 +36,11 @@ public class ExpenseTracker {
 
         boolean running = true;
         while (running) {
+            // the ledgers still in memory are saved on the way out, the one that failed to open was never changed
+            if (workspace != null && !useLedger(ledgerName)) {
+                shutDown();
+                break;
+            }
             displayMenu();
             int choice = getMenuChoice();
 
@@ -63,8 +76,20 @@ public class ExpenseTracker {
                     loadExpensesFromFile();
                     break;
                 case 11:
+                    searchExpenses();
+                    break;
+                case 12:
+                    viewStatistics();
+                    break;
+                case 13:
+                    switchLedger();
+                    break;
+                case 14:
+                    viewTotalsAcrossLedgers();
+                    break;
+                case 15:
                     running = false;
-                    System.out.println("\nExiting expense tracker");
+                    shutDown();
                     break;
                 default:
                     System.out.println("Invalid choice");
@@ -73,6 +98,17 @@ public class ExpenseTracker {
         scanner.close();
     }
 
+    // closes the journal and spill files and saves the workspace
+    private void shutDown() {
+        expenseManager.close();
+        closeWorkspace();
+        System.out.println("\nExiting expense tracker");
+        if (printStatsOnExit) {
+            System.out.println();
+            System.out.print(expenseManager.getStatsReport());
+        }
+    }
+
     private void displayMenu() {
         System.out.println("\n" + "=".repeat(45));
         System.out.println("MAIN MENU");
@@ -87,12 +123,19 @@ public class ExpenseTracker {
         System.out.println("8. Load Sample Data");
         System.out.println("9. Save Expenses to File");
         System.out.println("10. Load Expenses from File");
-        System.out.println("11. Exit");
+        System.out.println("11. Search Expenses");
+        System.out.println("12. View Statistics");
+        System.out.println("13. Switch Ledger");
+        System.out.println("14. View Totals Across Ledgers");
+        System.out.println("15. Exit");
         System.out.println("=".repeat(45));
     }
 
     private int getMenuChoice() {
-        System.out.print("\nEnter an option (1-11): ");
+        if (workspace != null) {
+            System.out.println("Ledger: " + ledgerName);
+        }
+        System.out.print("\nEnter an option (1-15): ");
         try {
             return Integer.parseInt(scanner.nextLine().trim());
         } catch (NumberFormatException e) {
@@ -112,12 +155,8 @@ public class ExpenseTracker {
 
             System.out.print("Date (MM/dd/yyyy): ");
             String date = scanner.nextLine().trim();
-            try {
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/uuuu");
-                formatter = formatter.withResolverStyle(ResolverStyle.STRICT);
-                LocalDate.parse(date, formatter);
-            } catch (DateTimeParseException e) {
-                System.out.println("Invalid date. Error: " + e.getMessage());
+            if (ExpenseDates.parse(date) == ExpenseDates.INVALID) {
+                System.out.println("Invalid date. Error: " + ExpenseDates.INVALID_MESSAGE);
                 return;
             }
 
@@ -175,7 +214,7 @@ public class ExpenseTracker {
 
     private void viewWeeklyTrend() {
         System.out.println("\n--- View Weekly Trend ---");
-        Map<String, Double> weeklyTrend = expenseManager.getWeeklyTrend();
+        Map<String, Double> weeklyTrend = expenseManager.getTrend(ExpenseRollup.Level.WEEK, null, null, null);
 
         if (weeklyTrend.isEmpty()) {
             System.out.println("No expenses recorded yet.");
@@ -185,48 +224,198 @@ public class ExpenseTracker {
         System.out.println(String.format("%-30s %s", "Week", "Total"));
         System.out.println("-".repeat(45));
 
+        // labels already read like Nov 2024 - Week 1
         for (Map.Entry<String, Double> entry : weeklyTrend.entrySet()) {
-            // currently in YYYY-MM-Wx, will make it into Month year - Week x
-            String[] parts = entry.getKey().split("-W");
-            String[] dateParts = parts[0].split("-");
-            int year = Integer.parseInt(dateParts[0]);
-            int month = Integer.parseInt(dateParts[1]);
-            int week = Integer.parseInt(parts[1]);
-
-            String monthName = java.time.Month.of(month).toString().substring(0,3);
-            String display = monthName.charAt(0) + monthName.substring(1).toLowerCase() + " " + year + " - Week " + week;
-            System.out.printf("%-30s $%.2f\n", display, entry.getValue());
+            System.out.printf("%-30s $%.2f\n", entry.getKey(), entry.getValue());
         }
     }
 
     private void viewHighestLowestCategories() {
         System.out.println("\n--- View Highest/Lowest Spending Categories ---");
-        String highestCategory = expenseManager.getHighestSpendCategory();
-        String lowestCategory = expenseManager.getLowestSpendCategory();
+        // each ranking comes back with its totals, so nothing is looked up again
+        Map<String, Double> highest = expenseManager.getTopCategories(1);
+        Map<String, Double> lowest = expenseManager.getBottomCategories(1);
 
-        if (highestCategory.isEmpty() || lowestCategory.isEmpty()) {
+        if (highest.isEmpty() || lowest.isEmpty()) {
             System.out.println("No expenses recorded yet.");
             return;
         }
 
-        System.out.printf("Highest spending category: %s ($%.2f)\n", highestCategory, expenseManager.getCategoryTotal(highestCategory));
-        System.out.printf("Lowest spending category: %s ($%.2f)\n", lowestCategory, expenseManager.getCategoryTotal(lowestCategory));
+        for (Map.Entry<String, Double> entry : highest.entrySet()) {
+            System.out.printf("Highest spending category: %s ($%.2f)\n", entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Double> entry : lowest.entrySet()) {
+            System.out.printf("Lowest spending category: %s ($%.2f)\n", entry.getKey(), entry.getValue());
+        }
+        System.out.printf("Median expense: $%.2f\n", expenseManager.getMedian(null));
+
+        System.out.println("\nLargest expenses:");
+        for (Expense expense : expenseManager.getLargestExpenses(3)) {
+            System.out.println(expense);
+        }
     }
 
+    // shows one page at a time straight from the date index, so the first page comes up at once
+    // whatever the size of the ledger; each page is built in one buffer and printed in one write
     private void viewAllExpenses() {
         System.out.println("\n--- All Expenses ---");
-        List<Expense> expenses = expenseManager.getAllExpenses();
-        if (expenses.isEmpty()) {
-            System.out.println("No expenses recorded yet.");
+        ExpenseFormatter formatter = new ExpenseFormatter();
+        int offset = 0;
+        while (true) {
+            int count = expenseManager.getExpensesCount();
+            if (count == 0) {
+                System.out.println("No expenses recorded yet.");
+                return;
+            }
+            offset = Math.max(0, Math.min(offset, count - 1));
+            List<Expense> page = expenseManager.getExpensesPage(offset, PAGE_SIZE);
+
+            formatter.append(String.format("%-15s %-11s %-12s %s", "Category", "Amount", "Date", "Description"));
+            formatter.append("-".repeat(60));
+            for (Expense expense : page) {
+                formatter.append(expense);
+            }
+            formatter.append(String.format("\nExpenses %d-%d of %d", offset + 1, offset + page.size(), count));
+            formatter.flushTo(System.out);
+
+            System.out.print("[n]ext, [p]revious, [d]ate, [q]uit: ");
+            String command = scanner.nextLine().trim().toLowerCase();
+            if (command.equals("n")) {
+                if (offset + PAGE_SIZE < count) {
+                    offset += PAGE_SIZE;
+                } else {
+                    System.out.println("Already on the last page.");
+                }
+            } else if (command.equals("p")) {
+                offset -= PAGE_SIZE;
+            } else if (command.equals("d")) {
+                System.out.print("Jump to date (MM/dd/yyyy): ");
+                int epochDay = ExpenseDates.parse(scanner.nextLine().trim());
+                if (epochDay == ExpenseDates.INVALID) {
+                    System.out.println("Invalid date. Error: " + ExpenseDates.INVALID_MESSAGE);
+                } else {
+                    offset = expenseManager.getExpensesPosition(LocalDate.ofEpochDay(epochDay));
+                }
+            } else if (command.equals("q") || command.isEmpty()) {
+                return;
+            } else {
+                System.out.println("Invalid choice");
+            }
+        }
+    }
+
+    private void searchExpenses() {
+        System.out.println("\n--- Search Expenses ---");
+        System.out.print("Search words (end a word with * to match the start of words): ");
+        String query = scanner.nextLine().trim();
+        System.out.print("Category (leave blank for all): ");
+        String category = scanner.nextLine().trim();
+        System.out.print("From date (MM/dd/yyyy, leave blank for no limit): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("To date (MM/dd/yyyy, leave blank for no limit): ");
+        String to = scanner.nextLine().trim();
+
+        int fromDay = from.isEmpty() ? 0 : ExpenseDates.parse(from);
+        int toDay = to.isEmpty() ? 0 : ExpenseDates.parse(to);
+        if (fromDay == ExpenseDates.INVALID || toDay == ExpenseDates.INVALID) {
+            System.out.println("Invalid date. Error: " + ExpenseDates.INVALID_MESSAGE);
+            return;
+        }
+
+        ExpenseSearchResult result = expenseManager.search(query, category.isEmpty() ? null : category,
+                from.isEmpty() ? null : LocalDate.ofEpochDay(fromDay), to.isEmpty() ? null : LocalDate.ofEpochDay(toDay),
+                MAX_SEARCH_RESULTS);
+        if (result.getMatchCount() == 0) {
+            System.out.println("No matching expenses.");
             return;
         }
 
         System.out.println(String.format("%-15s %-11s %-12s %s", "Category", "Amount", "Date", "Description"));
         System.out.println("-".repeat(60));
-        for (Expense expense : expenses) {
+        for (Expense expense : result.getExpenses()) {
             System.out.println(expense);
         }
-        System.out.printf("\nTotal expenses: %d\n", expenseManager.getExpensesCount());
+        if (result.getMatchCount() > result.getExpenses().size()) {
+            System.out.printf("... and %d more\n", result.getMatchCount() - result.getExpenses().size());
+        }
+        System.out.printf("\n%d matching expenses, total $%.2f (%.1f ms)\n",
+                result.getMatchCount(), result.getTotal(), result.getElapsedNanos() / 1e6);
+    }
+
+    private void viewStatistics() {
+        System.out.println("\n--- View Statistics ---");
+        System.out.print(expenseManager.getStatsReport());
+    }
+
+    private void switchLedger() {
+        System.out.println("\n--- Switch Ledger ---");
+        if (workspace == null) {
+            System.out.println("Start with --workspace <directory> to keep several ledgers.");
+            return;
+        }
+        System.out.println("Ledgers: " + String.join(", ", workspace.getLedgerNames()));
+        System.out.print("Enter ledger name (a new name creates it): ");
+        String name = scanner.nextLine().trim();
+        if (name.isEmpty()) {
+            System.out.println("Error: No ledger name provided.");
+            return;
+        }
+        String previous = ledgerName;
+        if (useLedger(name)) {
+            ledgerName = name;
+            System.out.println("Switched to ledger " + name);
+        } else {
+            useLedger(previous);
+        }
+    }
+
+    // makes the named ledger the current one, reading it back in if it was evicted
+    private boolean useLedger(String name) {
+        try {
+            expenseManager = workspace.ledger(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error opening ledger: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void viewTotalsAcrossLedgers() {
+        System.out.println("\n--- View Totals Across Ledgers ---");
+        if (workspace == null) {
+            System.out.println("Start with --workspace <directory> to keep several ledgers.");
+            return;
+        }
+        try {
+            Map<String, Double> byLedger = workspace.getTotalByLedger();
+            Map<String, Double> byCategory = workspace.getTotalByCategory();
+            System.out.println(String.format("%-15s %s", "Ledger", "Total"));
+            System.out.println("-".repeat(40));
+            for (Map.Entry<String, Double> entry : byLedger.entrySet()) {
+                System.out.printf("%-15s $%.2f\n", entry.getKey(), entry.getValue());
+            }
+            System.out.println();
+            System.out.println(String.format("%-15s %s", "Category", "Total"));
+            System.out.println("-".repeat(40));
+            for (Map.Entry<String, Double> entry : byCategory.entrySet()) {
+                System.out.printf("%-15s $%.2f\n", entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading ledgers: " + e.getMessage());
+        }
+    }
+
+    private void closeWorkspace() {
+        if (workspace == null) {
+            return;
+        }
+        try {
+            workspace.close();
+        } catch (IOException e) {
+            System.out.println("Error saving ledgers: " + e.getMessage());
+        }
     }
 
     private void loadSampleData() {
@@ -235,15 +424,15 @@ public class ExpenseTracker {
     }
 
     private void saveExpensesToFile() {
-        System.out.print("\nEnter filename (must be csv): ");
+        System.out.print("\nEnter filename (.csv or .bin): ");
         String filename = scanner.nextLine().trim();
 
         if (filename.isEmpty()) {
             System.out.println("Error: No filename provided.");
             return;
         }
-        if (!filename.endsWith(".csv")) {
-            System.out.println("Error: Filename must end with .csv");
+        if (!filename.endsWith(".csv") && !filename.endsWith(".bin")) {
+            System.out.println("Error: Filename must end with .csv or .bin");
             return;
         }
 
@@ -251,15 +440,15 @@ public class ExpenseTracker {
     }
 
     private void loadExpensesFromFile() {
-        System.out.print("\nEnter filename (must be csv): ");
+        System.out.print("\nEnter filename (.csv or .bin): ");
         String filename = scanner.nextLine().trim();
 
         if (filename.isEmpty()) {
             System.out.println("Error: No filename provided.");
             return;
         }
-        if (!filename.endsWith(".csv")) {
-            System.out.println("Error: Filename must end with .csv");
+        if (!filename.endsWith(".csv") && !filename.endsWith(".bin")) {
+            System.out.println("Error: Filename must end with .csv or .bin");
             return;
         }
         File file = new File(filename);
@@ -271,8 +460,95 @@ public class ExpenseTracker {
         expenseManager.loadFromFile(filename);
     }
 
+    // --data <directory> keeps every added expense in a journal in that directory
+    // and restores it on the next start
+    // --convert <from> <to> converts between .csv and .bin files and exits
+    // --stats prints the statistics report on exit, the same numbers are always published over JMX
+    // --spill <directory> seals older expenses into segment files there once more than --hot-rows <n>
+    // (1000000 by default) are in memory, for ledgers that do not fit in the heap
+    // --workspace <directory> keeps many named ledgers in that directory, switched between from the menu
+    // --load, --stream, --report and --out run headless reports without the menu, see ExpenseCli
     public static void main(String[] args) {
+        if (args.length == 3 && args[0].equals("--convert")) {
+            ExpenseManager.convert(args[1], args[2]);
+            return;
+        }
+        if (ExpenseCli.isHeadless(args)) {
+            int code = ExpenseCli.run(args);
+            if (code != 0) {
+                System.exit(code);
+            }
+            return;
+        }
         ExpenseTracker expenseTracker = new ExpenseTracker();
+        String dataDirectory = null;
+        String spillDirectory = null;
+        int hotRows = ExpenseManager.DEFAULT_HOT_ROWS;
+        int serverPort = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data") && i + 1 < args.length) {
+                dataDirectory = args[++i];
+            } else if (args[i].equals("--stats")) {
+                expenseTracker.printStatsOnExit = true;
+            } else if (args[i].equals("--workspace") && i + 1 < args.length) {
+                try {
+                    expenseTracker.workspace = new ExpenseWorkspace(args[++i], MAX_LOADED_LEDGERS);
+                    expenseTracker.ledgerName = DEFAULT_LEDGER;
+                } catch (IOException e) {
+                    System.out.println("Error opening workspace: " + e.getMessage());
+                }
+            } else if (args[i].equals("--spill") && i + 1 < args.length) {
+                spillDirectory = args[++i];
+            } else if (args[i].equals("--hot-rows") && i + 1 < args.length) {
+                try {
+                    hotRows = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid --hot-rows value, using " + hotRows);
+                }
+            } else if (args[i].equals("--serve") && i + 1 < args.length) {
+                try {
+                    serverPort = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid --serve port, the http service is not started");
+                }
+            }
+        }
+        // the journal, spilling, the JMX view and the http service all belong to one manager, a workspace has many
+        if (expenseTracker.workspace != null) {
+            if (dataDirectory != null || spillDirectory != null || serverPort >= 0) {
+                System.out.println("--data, --spill and --serve are ignored with --workspace");
+            }
+            expenseTracker.run();
+            return;
+        }
+        if (dataDirectory != null) {
+            expenseTracker.expenseManager.openJournal(dataDirectory);
+        }
+        if (spillDirectory != null) {
+            try {
+                expenseTracker.expenseManager.enableSpill(spillDirectory, hotRows);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+        try {
+            expenseTracker.expenseManager.registerMBean();
+        } catch (JMException e) {
+            System.out.println("Statistics are not available over JMX: " + e.getMessage());
+        }
+        ExpenseServer server = null;
+        if (serverPort >= 0) {
+            try {
+                server = new ExpenseServer(expenseTracker.expenseManager, serverPort);
+                server.start();
+                System.out.println("Serving expenses on http://localhost:" + server.getPort());
+            } catch (IOException e) {
+                System.out.println("Error starting the http service: " + e.getMessage());
+            }
+        }
         expenseTracker.run();
+        if (server != null) {
+            server.stop();
+        }
     }
 }
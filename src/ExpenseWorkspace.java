@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+// many named ledgers in one process, each its own ExpenseManager saved as <name>.bin in the workspace directory
+// every ledger shares one category dictionary, so a category has the same id in all of them and per-category
+// totals of different ledgers add up slot by slot; dates already go through the one static ExpenseDates codec
+//
+// a ledger is read from its file the first time it is asked for; once more than maxLoaded are in memory the one
+// used longest ago is dropped and, if it changed, written back; files are read and written after the workspace
+// lock is released, so lookups of other ledgers never wait for the disk; a ledger asked for again while it is
+// being written is taken back from memory instead of being read from its half-written file, and writes of the
+// same ledger, which share one temporary file, take turns
+// every ledger shares one set of metrics, and only keeps per-category sketches for the categories it uses
+// cross-ledger reports are summed in parallel on the common fork-join pool, ledgers that are not in memory are
+// summed straight from their files without loading them or pushing others out
+//
+// safe to use from several threads; a ledger handed out by ledger() stays usable after it is evicted, but whatever
+// is added to it from then on is not saved, so threads sharing a workspace go through withLedger, which keeps
+// the ledger in memory until the action returns
+public class ExpenseWorkspace {
+    private static final String EXTENSION = ".bin";
+
+    private final Path directory;
+    private final int maxLoaded;
+    private final CategoryDictionary categories;
+    private final ExpenseMetrics metrics;
+    // in access order, the first entry is the one used longest ago
+    private final LinkedHashMap<String, Ledger> loaded;
+    // evicted ledgers whose file is being written, by name
+    private final Map<String, Ledger> evicting;
+    // names whose file is being read, threads asking for them wait until the read is done
+    private final Set<String> loading;
+    private final Set<String> names;
+
+    public ExpenseWorkspace(String directory, int maxLoaded) throws IOException {
+        if (maxLoaded < 1) {
+            throw new IllegalArgumentException("At least one ledger must fit in memory");
+        }
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.maxLoaded = maxLoaded;
+        this.categories = new CategoryDictionary();
+        this.metrics = new ExpenseMetrics();
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.evicting = new HashMap<>();
+        this.loading = new HashSet<>();
+        this.names = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                names.add(name.substring(0, name.length() - EXTENSION.length()));
+            }
+        }
+    }
+
+    // the ledger with the given name, read from disk if it is not in memory and created if it does not exist yet
+    public ExpenseManager ledger(String name) throws IOException {
+        Ledger ledger = pin(name);
+        unpin(ledger);
+        return ledger.manager;
+    }
+
+    // runs the action on the ledger and keeps the ledger from being evicted until it returns
+    // actions on different ledgers run in parallel, the workspace is only locked to look the ledger up
+    public <T> T withLedger(String name, Function<ExpenseManager, T> action) throws IOException {
+        Ledger ledger = pin(name);
+        try {
+            evict(maxLoaded);
+            return action.apply(ledger.manager);
+        } finally {
+            unpin(ledger);
+        }
+    }
+
+    public synchronized Set<String> getLedgerNames() {
+        return new TreeSet<>(names);
+    }
+
+    public synchronized int getLoadedCount() {
+        return loaded.size();
+    }
+
+    public CategoryDictionary getCategories() {
+        return categories;
+    }
+
+    // counts and latencies of every ledger's operations together
+    public ExpenseMetrics getMetrics() {
+        return metrics;
+    }
+
+    // total per category over every ledger
+    public Map<String, Double> getTotalByCategory() throws IOException {
+        Map<String, long[]> totals = categoryCentsByLedger();
+        long[] sum = new long[categories.size()];
+        for (long[] ledgerTotals : totals.values()) {
+            // the dictionary may have grown while the ledgers were summed
+            if (ledgerTotals.length > sum.length) {
+                sum = Arrays.copyOf(sum, ledgerTotals.length);
+            }
+            for (int id = 0; id < ledgerTotals.length; id++) {
+                sum[id] += ledgerTotals[id];
+            }
+        }
+        Map<String, Double> byCategory = new HashMap<>();
+        for (int id = 0; id < sum.length; id++) {
+            if (sum[id] > 0) {
+                byCategory.put(categories.nameOf(id), ExpenseMoney.toAmount(sum[id]));
+            }
+        }
+        return byCategory;
+    }
+
+    // total of each ledger, by name
+    public Map<String, Double> getTotalByLedger() throws IOException {
+        Map<String, Double> byLedger = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : categoryCentsByLedger().entrySet()) {
+            long[] ledgerTotals = entry.getValue();
+            byLedger.put(entry.getKey(), ExpenseMoney.toAmount(ExpenseMoney.sum(ledgerTotals, 0, ledgerTotals.length)));
+        }
+        return byLedger;
+    }
+
+    // writes every ledger in memory that changed since it was read or last written, without the workspace lock
+    // the ledgers are pinned until written, so none is evicted and read back in as a newer copy meanwhile;
+    // evicted ledgers are left to the thread writing them; the first failure is thrown once all were tried
+    public void flush() throws IOException {
+        List<Map.Entry<String, Ledger>> changed = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Ledger> entry : loaded.entrySet()) {
+                Ledger ledger = entry.getValue();
+                if (ledger.manager.getExpensesCount() != ledger.savedCount) {
+                    ledger.pins++;
+                    changed.add(Map.entry(entry.getKey(), ledger));
+                }
+            }
+        }
+        IOException failure = null;
+        for (Map.Entry<String, Ledger> entry : changed) {
+            Ledger ledger = entry.getValue();
+            int count = -1;
+            try {
+                count = write(entry.getKey(), ledger);
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            } finally {
+                synchronized (this) {
+                    ledger.pins--;
+                    ledger.savedCount = Math.max(ledger.savedCount, count);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        evict(maxLoaded);
+    }
+
+    // flushes and drops every ledger from memory, the workspace can still be used afterwards
+    // ledgers in use by withLedger stay until their action returns
+    public void close() throws IOException {
+        flush();
+        evict(0);
+    }
+
+    // the ledger marked as just used and pinned, read in or created first if needed
+    // the file is read without the workspace lock, other threads asking for the same ledger wait for it
+    private Ledger pin(String name) throws IOException {
+        synchronized (this) {
+            while (loading.contains(name)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while ledger " + name + " was being read");
+                }
+            }
+            Ledger ledger = loaded.get(name);
+            if (ledger == null) {
+                ledger = evicting.get(name);
+                if (ledger != null) {
+                    loaded.put(name, ledger);
+                }
+            }
+            if (ledger != null) {
+                ledger.pins++;
+                return ledger;
+            }
+            if (!name.matches("[A-Za-z0-9_-]+")) {
+                throw new IllegalArgumentException("Ledger names may only use letters, digits, - and _");
+            }
+            if (!names.contains(name)) {
+                names.add(name);
+                ledger = new Ledger(new ExpenseManager(categories, metrics), false);
+                ledger.pins++;
+                loaded.put(name, ledger);
+                return ledger;
+            }
+            loading.add(name);
+        }
+        Ledger ledger = null;
+        try {
+            ExpenseManager manager = new ExpenseManager(categories, metrics);
+            manager.readBinary(fileOf(name).toString());
+            ledger = new Ledger(manager, true);
+            ledger.pins++;
+        } finally {
+            synchronized (this) {
+                loading.remove(name);
+                if (ledger != null) {
+                    loaded.put(name, ledger);
+                }
+                notifyAll();
+            }
+        }
+        return ledger;
+    }
+
+    private void unpin(Ledger ledger) throws IOException {
+        synchronized (this) {
+            ledger.pins--;
+        }
+        evict(maxLoaded);
+    }
+
+    // drops idle ledgers until at most keep are in memory and writes back the ones that changed
+    private void evict(int keep) throws IOException {
+        List<Map.Entry<String, Ledger>> evicted;
+        synchronized (this) {
+            evicted = evictIdle(keep);
+        }
+        writeEvicted(evicted);
+    }
+
+    // drops the ledgers used longest ago until keep are left and returns the ones that still need writing,
+    // pinned and listed in evicting until writeEvicted is done with them; callers hold the lock
+    // ledgers in use by withLedger are skipped, so more than maxLoaded can be in memory for a while
+    // ledgers only ever grow, so a ledger changed exactly when its row count did; a new ledger is written
+    // even when empty so every name has a file once it leaves memory
+    private List<Map.Entry<String, Ledger>> evictIdle(int keep) {
+        List<Map.Entry<String, Ledger>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Ledger>> eldest = loaded.entrySet().iterator();
+        while (loaded.size() > keep && eldest.hasNext()) {
+            Map.Entry<String, Ledger> entry = eldest.next();
+            Ledger ledger = entry.getValue();
+            if (ledger.pins == 0) {
+                eldest.remove();
+                if (ledger.manager.getExpensesCount() != ledger.savedCount) {
+                    ledger.pins++;
+                    evicting.put(entry.getKey(), ledger);
+                    evicted.add(Map.entry(entry.getKey(), ledger));
+                }
+            }
+        }
+        return evicted;
+    }
+
+    // writes the evicted ledgers without the workspace lock; a ledger that cannot be written is put back in
+    // memory so nothing added to it is lost, and the first failure is thrown once all were tried
+    private void writeEvicted(List<Map.Entry<String, Ledger>> evicted) throws IOException {
+        IOException failure = null;
+        for (Map.Entry<String, Ledger> entry : evicted) {
+            String name = entry.getKey();
+            Ledger ledger = entry.getValue();
+            int count = -1;
+            try {
+                count = write(name, ledger);
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            } finally {
+                synchronized (this) {
+                    ledger.pins--;
+                    evicting.remove(name);
+                    if (count >= 0) {
+                        ledger.savedCount = Math.max(ledger.savedCount, count);
+                    } else if (!loaded.containsKey(name)) {
+                        loaded.put(name, ledger);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // writes the ledger's file and returns how many rows were counted before it started, at least that many
+    // are in the file; flush and eviction can write the same ledger at once, so they take turns on the ledger
+    private int write(String name, Ledger ledger) throws IOException {
+        synchronized (ledger) {
+            int count = ledger.manager.getExpensesCount();
+            ledger.manager.writeBinary(fileOf(name).toString());
+            return count;
+        }
+    }
+
+    private Path fileOf(String name) {
+        return directory.resolve(name + EXTENSION);
+    }
+
+    // per-category cents of every ledger, by name, summed in parallel
+    // which ledgers are in memory is fixed up front, the summing itself runs without the workspace lock
+    private Map<String, long[]> categoryCentsByLedger() throws IOException {
+        List<String> ledgerNames;
+        List<ExpenseManager> managers = new ArrayList<>();
+        synchronized (this) {
+            // walking the entries does not count as using them, a get would
+            Map<String, ExpenseManager> inMemory = new HashMap<>();
+            for (Map.Entry<String, Ledger> entry : loaded.entrySet()) {
+                inMemory.put(entry.getKey(), entry.getValue().manager);
+            }
+            // their files may be half written, their rows are still here
+            for (Map.Entry<String, Ledger> entry : evicting.entrySet()) {
+                inMemory.put(entry.getKey(), entry.getValue().manager);
+            }
+            ledgerNames = new ArrayList<>(names);
+            for (String name : ledgerNames) {
+                managers.add(inMemory.get(name));
+            }
+        }
+        long[][] totals = new long[ledgerNames.size()][];
+        try {
+            ForkJoinPool.commonPool().invoke(new SumLedgers(ledgerNames, managers, totals, 0, totals.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, long[]> byLedger = new LinkedHashMap<>();
+        for (int i = 0; i < totals.length; i++) {
+            byLedger.put(ledgerNames.get(i), totals[i]);
+        }
+        return byLedger;
+    }
+
+    // splits the ledgers in halves down to single ledgers, each summed on its own
+    private class SumLedgers extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> ledgerNames;
+        private final List<ExpenseManager> managers;
+        private final long[][] totals;
+        private final int from;
+        private final int to;
+
+        SumLedgers(List<String> ledgerNames, List<ExpenseManager> managers, long[][] totals, int from, int to) {
+            this.ledgerNames = ledgerNames;
+            this.managers = managers;
+            this.totals = totals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SumLedgers(ledgerNames, managers, totals, from, middle),
+                        new SumLedgers(ledgerNames, managers, totals, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    totals[i] = managers.get(i) != null
+                            ? managers.get(i).getCategoryCents() : categoryCentsOf(fileOf(ledgerNames.get(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    // sums a ledger file column-wise by its own category ids, then maps those onto the shared dictionary
+    private long[] categoryCentsOf(Path file) throws IOException {
+        ExpenseBinaryFile.Columns columns = ExpenseBinaryFile.readAmounts(file.toString());
+        String[] fileNames = columns.getCategoryNames();
+        long[] fileTotals = new long[fileNames.length];
+        ExpenseMoney.sumByCategory(columns.getCents(), columns.getCategoryIds(), 0, columns.size(), fileTotals);
+        long[] totals = new long[categories.size()];
+        for (int i = 0; i < fileNames.length; i++) {
+            if (fileTotals[i] > 0) {
+                int id = categories.idOf(fileNames[i]);
+                if (id >= totals.length) {
+                    totals = Arrays.copyOf(totals, categories.size());
+                }
+                totals[id] += fileTotals[i];
+            }
+        }
+        return totals;
+    }
+
+    private static class Ledger {
+        private final ExpenseManager manager;
+        // row count when the ledger was last read or written, -1 while it has no file yet
+        private int savedCount;
+        // how many withLedger actions are running on it
+        private int pins;
+
+        Ledger(ExpenseManager manager, boolean saved) {
+            this.manager = manager;
+            this.savedCount = saved ? manager.getExpensesCount() : -1;
+        }
+    }
+}
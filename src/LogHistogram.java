@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// counts non-negative long values in log-linear buckets, like an HdrHistogram with two significant digits
+// values below 128 get a bucket each, above that every power of two is split into 64 buckets,
+// so a percentile read back is within 1% of the real value whatever the range
+// adding is one atomic increment and never locks, a percentile walks the fixed set of buckets
+public class LogHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+    // powers of two from 2^7 up to 2^62 each get SUB_BUCKETS buckets
+    private static final int BUCKETS = EXACT_LIMIT + 56 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAccumulator min;
+    private final LongAccumulator max;
+
+    public LogHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        this.max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+
+    // negative values are counted as 0
+    public void add(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    // the bucket counts dominate, a histogram is this big whatever it holds
+    public static long estimatedBytes() {
+        return 16 + 8L * BUCKETS + 200;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    // 0 when nothing was added
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    // the value below which the given percent of the values fall, e.g. 50 for the median
+    // 0 when nothing was added
+    public long percentile(double percent) {
+        if (percent < 0 || percent > 100 || Double.isNaN(percent)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+        // the ends are tracked exactly
+        if (rank == 1) {
+            return getMin();
+        }
+        if (rank >= total) {
+            return getMax();
+        }
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                // the middle of the bucket, but never outside what was actually added
+                return Math.min(Math.max(middleOf(index), getMin()), getMax());
+            }
+        }
+        // only reachable while an add is half done
+        return getMax();
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - 6;
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long middleOf(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int shift = (index - EXACT_LIMIT) / SUB_BUCKETS + 1;
+        long top = (index - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        long low = top << shift;
+        long high = ((top + 1) << shift) - 1;
+        return low + (high - low) / 2;
+    }
+}